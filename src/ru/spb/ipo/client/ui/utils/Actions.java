@@ -29,9 +29,13 @@ import ru.spb.ipo.engine.rmi.Server;
 import ru.spb.ipo.engine.rmi.UserChoice;
 import ru.spb.ipo.engine.task.ClientTask;
 import ru.spb.ipo.engine.utils.SystemProperties;
+import ru.spb.ipo.engine.verifiers.ProgressListener;
 
 import javax.swing.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 public class Actions {
 
@@ -187,44 +191,13 @@ public class Actions {
             }
         };
 
-        final Runnable run = new Runnable() {
-            public void run() {
-                try {
-                    boolean result = engine.verify(currentChoise, currentTask);
-                    if (holder != null) {
-                        holder.value = new Boolean(result);
-                        callBack.run();
-                    }
-                    if (result) {
-                        ClientUI.client.stopProcessedDialog();
-                        showMessage("Ответ верен. Задача решена.", JOptionPane.INFORMATION_MESSAGE);
-                    } else {
-                        ClientUI.client.stopProcessedDialog();
-                        showMessage("Ответ не верен", JOptionPane.WARNING_MESSAGE);
+        final ProgressListener listener = new ProgressListener() {
+            public void progress(final float completed) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        ClientUI.client.setProcessed(completed);
                     }
-                } catch (XmlException e) {
-                    ClientUI.client.stopProcessedDialog();
-                    e.printStackTrace();
-                    showMessage("Ошибка в в файле описания задачи: \n" + e.getMessage(), JOptionPane.ERROR_MESSAGE);
-                } catch (TaskDeserializationException e) {
-                    ClientUI.client.stopProcessedDialog();
-                    e.printStackTrace();
-                    showMessage("Ошибка в в файле описания задачи: \n" + e.getMessage(), JOptionPane.ERROR_MESSAGE);
-                } catch (SystemException e) {
-                    ClientUI.client.stopProcessedDialog();
-                    e.printStackTrace();
-                    showMessage("Ошибка в системе: \n" + e.getMessage(), JOptionPane.ERROR_MESSAGE);
-                } catch (UserAnswerParseException e) {
-                    ClientUI.client.stopProcessedDialog();
-                    e.printStackTrace();
-                    showMessage(e.getMessage(), JOptionPane.ERROR_MESSAGE);
-                } catch (Exception e) {
-                    ClientUI.client.stopProcessedDialog();
-                    e.printStackTrace();
-                    showMessage("Внутренняя ошибка: " + e.getMessage(), JOptionPane.ERROR_MESSAGE);
-                } finally {
-                    ClientUI.client.stopProcessedDialog();
-                }
+                });
             }
         };
 
@@ -232,13 +205,54 @@ public class Actions {
         SwingUtilities.invokeLater(new Runnable() {
 
             public void run() {
-                new Thread(run).start();
-
+                engine.verifyAsync(currentChoise, currentTask, listener).whenComplete(new BiConsumer<Boolean, Throwable>() {
+                    public void accept(final Boolean result, final Throwable e) {
+                        // проверка завершается в потоке верификации, окна показываются в потоке Swing
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                showResult(result, e, holder, callBack);
+                            }
+                        });
+                    }
+                });
             }
 
         });
     }
 
+    private void showResult(Boolean result, Throwable e, ObjectHolder holder, Runnable callBack) {
+        if (e instanceof CancellationException) {
+            // проверка заменена новой, окно хода проверки принадлежит уже ей
+            return;
+        }
+        ClientUI.client.stopProcessedDialog();
+        if (e == null) {
+            if (holder != null) {
+                holder.value = result;
+                callBack.run();
+            }
+            if (result.booleanValue()) {
+                showMessage("Ответ верен. Задача решена.", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                showMessage("Ответ не верен", JOptionPane.WARNING_MESSAGE);
+            }
+        } else if (e instanceof TimeoutException) {
+            showMessage("Проверка заняла слишком много времени и была прервана", JOptionPane.WARNING_MESSAGE);
+        } else if (e instanceof TaskDeserializationException) {
+            e.printStackTrace();
+            showMessage("Ошибка в в файле описания задачи: \n" + e.getMessage(), JOptionPane.ERROR_MESSAGE);
+        } else if (e instanceof SystemException) {
+            e.printStackTrace();
+            showMessage("Ошибка в системе: \n" + e.getMessage(), JOptionPane.ERROR_MESSAGE);
+        } else if (e instanceof UserAnswerParseException) {
+            e.printStackTrace();
+            showMessage(e.getMessage(), JOptionPane.ERROR_MESSAGE);
+        } else {
+            e.printStackTrace();
+            showMessage("Внутренняя ошибка: " + e.getMessage(), JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     public static void showMessage(String str, int type) {
         Logger.log(str);
         JOptionPane.showMessageDialog(getClient(), str, "Решение", type);
@@ -19,23 +19,24 @@
 
 package ru.spb.ipo.engine;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
+import ru.spb.ipo.engine.exception.NodeNotExistsException;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.exception.XmlException;
 import ru.spb.ipo.engine.rmi.ContestProblemAccessor;
 import ru.spb.ipo.engine.rmi.ProblemProxy;
+import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.task.ServerTask;
+import ru.spb.ipo.engine.task.TaskReader;
 import ru.spb.ipo.engine.utils.FileAccessUtil;
-import ru.spb.ipo.engine.utils.Utils;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Author: Michael.Bogdanov
@@ -49,20 +50,14 @@ public class ProblemsForContest {
 
     private Node rootTasks;
 
-    private DocumentBuilder parser;
-
-    private Document rootConfig;
-
-    private Node[] tasks;
-
-    //map
-    private Map<Long, ServerTask> serverProblems;
+    private List<Node> tasks;
 
     private ProblemProxy[] problemProxies;
 
     private String taskDir;
 
-    private static Map contestMap = new TreeMap();
+    // задачник загружается одним потоком, разные задачники - независимо
+    private static ConcurrentMap<Long, FutureTask<ProblemsForContest>> contestMap = new ConcurrentHashMap<Long, FutureTask<ProblemsForContest>>();
 
 
     private long contestId;
@@ -71,18 +66,14 @@ public class ProblemsForContest {
         this.accessor = accessor;
         this.mainConfig = mainConfig;
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-
-        parser = factory.newDocumentBuilder();
-        rootConfig = parser.parse(FileAccessUtil.getInputStream(mainConfig));
-
-        rootTasks = Utils.getChild(rootConfig, "tasks");
-
-        tasks = Utils.getNodes(rootTasks, "task");
+        rootTasks = TaskReader.read(FileAccessUtil.getInputStream(mainConfig), mainConfig);
+        if (!"tasks".equals(rootTasks.getNodeName())) {
+            throw new NodeNotExistsException("Не могу найти ребенка 'tasks' для вершины " + mainConfig + "!");
+        }
 
-        serverProblems = new HashMap<Long, ServerTask>();
+        tasks = rootTasks.getChilds("task");
 
-        taskDir = rootTasks.getAttributes().getNamedItem("taskDir").getNodeValue();
+        taskDir = rootTasks.getAttr("taskDir");
     }
 
 
@@ -95,8 +86,6 @@ public class ProblemsForContest {
         } catch (IOException e) {
             throw new TaskDeserializationException("Не могу составить список задач для " + accessor.getContestName(contestId) + ": \n" + e.getMessage());
         }
-
-        serverProblems = new HashMap<Long, ServerTask>();
     }
 
     public ProblemProxy[] getProbelmList() {
@@ -104,28 +93,43 @@ public class ProblemsForContest {
     }
 
     public ServerTask getProblem(long id) throws SystemException, TaskDeserializationException {
-        ServerTask task = serverProblems.get(id);
-        if (task != null) {
-            return task;
-        } else {
-            task = accessor.getProblem(contestId, id);
-            serverProblems.put(id, task);
-        }
-        return task;
+        return TaskRegistry.instance.getProblem(contestId, id, accessor);
     }
 
-    public static ProblemsForContest getProblemsPerContest(long contestId, ContestProblemAccessor accessor) throws TaskDeserializationException, SystemException {
-        ProblemsForContest problems = (ProblemsForContest) contestMap.get(contestId);
-        if (problems == null) {
-            synchronized (ProblemsForContest.class) {
-                problems = (ProblemsForContest) contestMap.get(contestId);
-                if (problems == null) {
-                    problems = new ProblemsForContest(contestId, accessor);
-                    contestMap.put(contestId, problems);
+    public static ProblemsForContest getProblemsPerContest(final long contestId, final ContestProblemAccessor accessor) throws TaskDeserializationException, SystemException {
+        FutureTask<ProblemsForContest> future = contestMap.get(contestId);
+        if (future == null) {
+            FutureTask<ProblemsForContest> newFuture = new FutureTask<ProblemsForContest>(new Callable<ProblemsForContest>() {
+                public ProblemsForContest call() throws Exception {
+                    return new ProblemsForContest(contestId, accessor);
                 }
+            });
+            future = contestMap.putIfAbsent(contestId, newFuture);
+            if (future == null) {
+                future = newFuture;
+                future.run();
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while loading contest " + contestId, e);
+        } catch (ExecutionException e) {
+            // неудачная загрузка не запоминается
+            contestMap.remove(contestId, future);
+            Throwable cause = e.getCause();
+            if (cause instanceof TaskDeserializationException) {
+                throw (TaskDeserializationException) cause;
+            }
+            if (cause instanceof SystemException) {
+                throw (SystemException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new SystemException("Can't load contest " + contestId + ": " + cause.getMessage(), e);
         }
-        return problems;
     }
 
 }
@@ -0,0 +1,266 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine;
+
+import ru.spb.ipo.engine.exception.SystemException;
+import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.rmi.ContestProblemAccessor;
+import ru.spb.ipo.engine.task.ServerTask;
+import ru.spb.ipo.engine.utils.SystemProperties;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Загруженные задачи всех задачников. Задача загружается одним потоком, остальные ждут ее загрузки,
+ * загрузка разных задач не блокирует друг друга. Суммарный размер задач (ServerTask.getModelSize)
+ * ограничен, при превышении вытесняются давно не использованные.
+ */
+public class TaskRegistry {
+
+    public static TaskRegistry instance = new TaskRegistry(SystemProperties.getInt(SystemProperties.TASK_CACHE_WEIGHT));
+
+    private final long maxWeight;
+
+    private final ConcurrentMap<Key, FutureTask<ServerTask>> loading = new ConcurrentHashMap<Key, FutureTask<ServerTask>>();
+
+    // порядок доступа, под своим замком
+    private final LinkedHashMap<Key, ServerTask> loaded = new LinkedHashMap<Key, ServerTask>(16, 0.75f, true);
+
+    private long weight;
+
+    private long hits;
+
+    private long loads;
+
+    private long failures;
+
+    private long evictions;
+
+    private long loadNanos;
+
+    public TaskRegistry(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public ServerTask getProblem(final long contestId, final long problemId, final ContestProblemAccessor accessor) throws TaskDeserializationException, SystemException {
+        final Key key = new Key(contestId, problemId);
+        ServerTask cached = cached(key);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean[] fromCache = new boolean[1];
+        FutureTask<ServerTask> future = new FutureTask<ServerTask>(new Callable<ServerTask>() {
+            public ServerTask call() throws Exception {
+                // загрузчик, завершившийся между проверкой loaded и putIfAbsent, уже добавил задачу
+                ServerTask task = cached(key);
+                if (task != null) {
+                    fromCache[0] = true;
+                    return task;
+                }
+                return accessor.getProblem(contestId, problemId);
+            }
+        });
+        FutureTask<ServerTask> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return get(existing);
+        }
+        long start = System.nanoTime();
+        try {
+            future.run();
+            ServerTask task = get(future);
+            if (!fromCache[0]) {
+                add(key, task, System.nanoTime() - start);
+            }
+            return task;
+        } catch (TaskDeserializationException e) {
+            failed(System.nanoTime() - start);
+            throw e;
+        } catch (SystemException e) {
+            failed(System.nanoTime() - start);
+            throw e;
+        } catch (RuntimeException e) {
+            failed(System.nanoTime() - start);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private ServerTask cached(Key key) {
+        synchronized (loaded) {
+            ServerTask task = loaded.get(key);
+            if (task != null) {
+                hits++;
+            }
+            return task;
+        }
+    }
+
+    private static ServerTask get(FutureTask<ServerTask> future) throws TaskDeserializationException, SystemException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while loading task", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TaskDeserializationException) {
+                throw (TaskDeserializationException) cause;
+            }
+            if (cause instanceof SystemException) {
+                throw (SystemException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SystemException("Can't load task: " + cause.getMessage(), e);
+        }
+    }
+
+    private void add(Key key, ServerTask task, long nanos) {
+        synchronized (loaded) {
+            loads++;
+            loadNanos += nanos;
+            ServerTask old = loaded.put(key, task);
+            if (old != null) {
+                weight -= old.getModelSize();
+            }
+            weight += task.getModelSize();
+            // последняя загруженная задача остается, даже если она одна больше лимита
+            Iterator<Map.Entry<Key, ServerTask>> it = loaded.entrySet().iterator();
+            while (weight > maxWeight && loaded.size() > 1) {
+                Map.Entry<Key, ServerTask> eldest = it.next();
+                weight -= eldest.getValue().getModelSize();
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private void failed(long nanos) {
+        synchronized (loaded) {
+            failures++;
+            loadNanos += nanos;
+        }
+    }
+
+    /**
+     * Забывает задачи задачника, например после изменения его файлов.
+     */
+    public void invalidate(long contestId) {
+        synchronized (loaded) {
+            Iterator<Map.Entry<Key, ServerTask>> it = loaded.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, ServerTask> entry = it.next();
+                if (entry.getKey().contestId == contestId) {
+                    weight -= entry.getValue().getModelSize();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (loaded) {
+            return loaded.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (loaded) {
+            return weight;
+        }
+    }
+
+    public long getHits() {
+        synchronized (loaded) {
+            return hits;
+        }
+    }
+
+    public long getLoads() {
+        synchronized (loaded) {
+            return loads;
+        }
+    }
+
+    public long getFailures() {
+        synchronized (loaded) {
+            return failures;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (loaded) {
+            return evictions;
+        }
+    }
+
+    /**
+     * Среднее время загрузки, включая неудачные, в микросекундах.
+     */
+    public long getAverageLoadMicros() {
+        synchronized (loaded) {
+            long count = loads + failures;
+            return count == 0 ? 0 : loadNanos / count / 1000;
+        }
+    }
+
+    public String toString() {
+        synchronized (loaded) {
+            return "tasks=" + loaded.size() + " weight=" + weight + "/" + maxWeight + " hits=" + hits + " loads=" + loads
+                    + " failures=" + failures + " evictions=" + evictions + " avgLoad=" + getAverageLoadMicros() + "us";
+        }
+    }
+
+    private static final class Key {
+
+        private final long contestId;
+
+        private final long problemId;
+
+        Key(long contestId, long problemId) {
+            this.contestId = contestId;
+            this.problemId = problemId;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return contestId == key.contestId && problemId == key.problemId;
+        }
+
+        public int hashCode() {
+            return (int) (contestId * 31 + problemId);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine;
+
+import ru.spb.ipo.engine.utils.MyLogger;
+import ru.spb.ipo.engine.utils.SystemProperties;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Очередь проверок. Проверки с оценкой стоимости (ServerTask.estimateCost) не больше порога
+ * идут в быструю полосу, остальные - в тяжелую с ограниченным числом потоков, так что одна
+ * тяжелая задача не занимает всю машину. Внутри полосы клиенты обслуживаются по кругу:
+ * по одной проверке от каждого клиента с непустой очередью. Очередь полосы ограничена:
+ * при переполнении проверка сразу отклоняется RejectedExecutionException.
+ * <p/>
+ * Оценка стоимости вычисляется не в вызывающем потоке (это может быть EDT), а первым шагом
+ * в быстрой полосе; дорогая проверка после оценки переходит в тяжелую.
+ */
+public class VerifyScheduler {
+
+    public static VerifyScheduler instance = new VerifyScheduler(
+            Long.parseLong(SystemProperties.getString(SystemProperties.VERIFY_FAST_COST).trim()),
+            SystemProperties.getInt(SystemProperties.VERIFY_FAST_WORKERS),
+            SystemProperties.getInt(SystemProperties.VERIFY_HEAVY_WORKERS),
+            SystemProperties.getInt(SystemProperties.VERIFY_QUEUE));
+
+    private final long fastCost;
+
+    private final Lane fast;
+
+    private final Lane heavy;
+
+    /**
+     * @param queue наибольшее число ожидающих проверок в каждой полосе
+     */
+    public VerifyScheduler(long fastCost, int fastWorkers, int heavyWorkers, int queue) {
+        this.fastCost = fastCost;
+        fast = new Lane("fast", Math.max(1, fastWorkers), Math.max(1, queue));
+        heavy = new Lane("heavy", Math.max(1, heavyWorkers), Math.max(1, queue));
+    }
+
+    /**
+     * @param clientId клиент для справедливой очереди; проверки без клиента делят одну очередь
+     * @throws RejectedExecutionException очередь быстрой полосы заполнена; о переполнении
+     *                                    тяжелой полосы сообщает Task.fail
+     */
+    public void submit(String clientId, final Task task) {
+        final String id = clientId == null ? "" : clientId;
+        fast.add(new Job(id, new Runnable() {
+            public void run() {
+                try {
+                    if (task.estimateCost() <= fastCost) {
+                        task.run();
+                    } else {
+                        heavy.add(new Job(id, task));
+                    }
+                } catch (Throwable e) {
+                    task.fail(e);
+                }
+            }
+        }));
+    }
+
+    public Lane getFastLane() {
+        return fast;
+    }
+
+    public Lane getHeavyLane() {
+        return heavy;
+    }
+
+    public String toString() {
+        return fast + ", " + heavy;
+    }
+
+    /**
+     * Проверка для очереди.
+     */
+    public interface Task extends Runnable {
+
+        /**
+         * Оценка стоимости проверки; вызывается в потоке быстрой полосы.
+         */
+        long estimateCost();
+
+        /**
+         * Проверка не выполнена: не поместилась в очередь тяжелой полосы (RejectedExecutionException)
+         * или оценка либо сама проверка завершилась ошибкой, в том числе Error.
+         */
+        void fail(Throwable e);
+    }
+
+    private static class Job {
+
+        private final String clientId;
+
+        private final Runnable task;
+
+        private final long submitted = System.nanoTime();
+
+        Job(String clientId, Runnable task) {
+            this.clientId = clientId;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Полоса со своими потоками и очередями клиентов.
+     */
+    public static class Lane {
+
+        private final String name;
+
+        // очереди клиентов в порядке обслуживания: обслуженный клиент переходит в конец
+        private final LinkedHashMap<String, ArrayDeque<Job>> queues = new LinkedHashMap<String, ArrayDeque<Job>>();
+
+        private final int capacity;
+
+        private int depth;
+
+        private long started;
+
+        private long rejected;
+
+        private long waitNanos;
+
+        private long maxWaitNanos;
+
+        Lane(String name, int workers, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+            for (int i = 0; i < workers; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        work();
+                    }
+                }, "verify-" + name + "-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void work() {
+            while (true) {
+                Job job;
+                try {
+                    job = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    job.task.run();
+                } catch (Throwable e) {
+                    // поток полосы переживает и Error (StackOverflowError, OutOfMemoryError)
+                    MyLogger.getLogger().warning("Verification job failed: " + e);
+                    if (job.task instanceof Task) {
+                        try {
+                            ((Task) job.task).fail(e);
+                        } catch (Throwable ignored) {
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized void add(Job job) {
+            if (depth >= capacity) {
+                rejected++;
+                throw new RejectedExecutionException("Verification queue is full");
+            }
+            ArrayDeque<Job> queue = queues.get(job.clientId);
+            if (queue == null) {
+                queue = new ArrayDeque<Job>();
+                queues.put(job.clientId, queue);
+            }
+            queue.add(job);
+            depth++;
+            notify();
+        }
+
+        private synchronized Job take() throws InterruptedException {
+            while (depth == 0) {
+                wait();
+            }
+            Iterator<Map.Entry<String, ArrayDeque<Job>>> it = queues.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Job>> next = it.next();
+            ArrayDeque<Job> queue = next.getValue();
+            Job job = queue.poll();
+            it.remove();
+            if (!queue.isEmpty()) {
+                queues.put(next.getKey(), queue);
+            }
+            depth--;
+            started++;
+            long wait = System.nanoTime() - job.submitted;
+            waitNanos += wait;
+            if (wait > maxWaitNanos) {
+                maxWaitNanos = wait;
+            }
+            return job;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Число проверок, ожидающих потока.
+         */
+        public synchronized int getQueueDepth() {
+            return depth;
+        }
+
+        public synchronized int getQueuedClients() {
+            return queues.size();
+        }
+
+        public synchronized long getStarted() {
+            return started;
+        }
+
+        /**
+         * Число проверок, отклоненных из-за заполненной очереди.
+         */
+        public synchronized long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Среднее время от постановки в очередь до начала проверки.
+         */
+        public synchronized double getAverageWaitMillis() {
+            return started == 0 ? 0 : waitNanos / 1e6 / started;
+        }
+
+        public synchronized double getMaxWaitMillis() {
+            return maxWaitNanos / 1e6;
+        }
+
+        public synchronized String toString() {
+            return name + ": queued=" + depth + ", clients=" + queues.size() + ", started=" + started + ", rejected=" + rejected
+                    + ", avgWait=" + String.format("%.1f", getAverageWaitMillis()) + "ms"
+                    + ", maxWait=" + String.format("%.1f", getMaxWaitMillis()) + "ms";
+        }
+    }
+}
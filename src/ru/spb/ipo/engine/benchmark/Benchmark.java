@@ -0,0 +1,80 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Одна измеряемая операция. measure сначала прогревает ее, затем повторяет до истечения времени
+ * и считает среднее время и число байт, выделенных текущим потоком, на одну операцию (аналог -prof gc).
+ */
+abstract class Benchmark {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    // чтобы JIT не выбросил результат операции
+    static volatile Object sink;
+
+    final String group;
+
+    final String name;
+
+    Benchmark(String group, String name) {
+        this.group = group;
+        this.name = name;
+    }
+
+    abstract Object run() throws Exception;
+
+    String measure(long warmupMillis, long measureMillis) throws Exception {
+        loop(warmupMillis * 1000000);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long ops = loop(measureMillis * 1000000);
+        long time = System.nanoTime() - start;
+        long allocated = bytes < 0 ? -1 : allocatedBytes() - bytes;
+        return group + "\t" + name + "\t" + ops + "\t" + time / ops + "\t" + (allocated < 0 ? "n/a" : String.valueOf(allocated / ops));
+    }
+
+    static String header() {
+        return "group\tbenchmark\tops\tns/op\tB/op";
+    }
+
+    private long loop(long nanos) throws Exception {
+        long start = System.nanoTime();
+        long ops = 0;
+        do {
+            sink = run();
+            ops++;
+        } while (System.nanoTime() - start < nanos);
+        return ops;
+    }
+
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.benchmark;
+
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.functions.FunctionCompiler;
+import ru.spb.ipo.engine.sets.Set;
+import ru.spb.ipo.engine.sets.SetIterator;
+import ru.spb.ipo.engine.task.AnswerCache;
+import ru.spb.ipo.engine.task.ClientTask;
+import ru.spb.ipo.engine.task.ClientTaskImpl;
+import ru.spb.ipo.engine.task.JavaTaskFactory;
+import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.task.ParametersSandbox;
+import ru.spb.ipo.engine.task.Preprocessor;
+import ru.spb.ipo.engine.task.ServerTask;
+import ru.spb.ipo.engine.task.TaskConstant;
+import ru.spb.ipo.engine.task.TaskTemplate;
+import ru.spb.ipo.engine.task.XmlTask;
+import ru.spb.ipo.engine.task.XmlTaskImpl;
+import ru.spb.ipo.engine.utils.Parser;
+import ru.spb.ipo.engine.utils.SystemProperties;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Замеры движка на задачах из каталога: перебор множеств по типам, вычисление функций по типам,
+ * условие верификатора в интерпретируемом и скомпилированном (FunctionCompiler) виде,
+ * ServerTask.verify по разделам задач, Parser.parseUserAnswer и подстановка параметров в условие.
+ * Запуск: java ru.spb.ipo.engine.benchmark.EngineBenchmark [каталог задач] [группы через запятую] [мс на замер]
+ * Группы: set, function, condition, verify, parser, preprocessor. Память считается только для потока замера,
+ * поэтому по умолчанию проверка идет в один поток (-DverifyParallelism меняет это).
+ */
+public class EngineBenchmark {
+
+    private static final String[] GROUPS = {"set", "function", "condition", "verify", "parser", "preprocessor"};
+
+    // сколько элементов множества перебирается (и на скольких вычисляется функция) за одну операцию
+    private static final int ELEMENTS = 10000;
+
+    private static final List<String> CONDITION_VERIFIERS = Arrays.asList(new String[]{"SimpleVerifier", "CountVerifier", "ListVerifier", "IndexVerifier"});
+
+    // сколько экземпляров одного типа входит в операцию
+    private static final int INSTANCES = 8;
+
+    // задачи, проверка которых дольше, в замер verify не входят
+    private static final long SLOW_VERIFY_MILLIS = 1000;
+
+    private static final String[] ANSWERS = {"42", "7/12", "2*3+4", "(1+2)/(3-4)", "2^10-1", "5!/(2!*3!)", "1; 2; 3; 5; 8; 13", "empty"};
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "tasks");
+        List<String> groups = Arrays.asList(args.length > 1 ? args[1].split(",") : GROUPS);
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        if (System.getProperty(SystemProperties.VERIFY_PARALLELISM) == null) {
+            SystemProperties.put(SystemProperties.VERIFY_PARALLELISM, "1");
+        }
+        // иначе verify будет мерить кэш
+        AnswerCache.instance = new AnswerCache(0, null);
+
+        List<Sample> samples = new ArrayList<Sample>();
+        collect(dir, dir, samples);
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        if (groups.contains("set")) {
+            benchmarks.addAll(setBenchmarks(samples));
+        }
+        if (groups.contains("function")) {
+            benchmarks.addAll(functionBenchmarks(samples));
+        }
+        if (groups.contains("condition")) {
+            benchmarks.addAll(conditionBenchmarks(samples));
+        }
+        if (groups.contains("verify")) {
+            benchmarks.addAll(verifyBenchmarks(samples));
+        }
+        if (groups.contains("parser")) {
+            benchmarks.add(parserBenchmark());
+        }
+        if (groups.contains("preprocessor")) {
+            benchmarks.addAll(preprocessorBenchmarks(samples));
+        }
+
+        PrintStream out = System.out;
+        out.println(Benchmark.header());
+        for (Benchmark benchmark : benchmarks) {
+            // ServerTask.verify печатает результат каждого набора параметров
+            System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) {
+                }
+            }));
+            String result;
+            try {
+                result = benchmark.measure(millis / 2, millis);
+            } catch (Exception e) {
+                result = benchmark.group + "\t" + benchmark.name + "\tfailed: " + e;
+            } finally {
+                System.setOut(out);
+            }
+            out.println(result);
+        }
+    }
+
+    private static List<Benchmark> setBenchmarks(List<Sample> samples) {
+        Map<String, List<Set>> byType = new TreeMap<String, List<Set>>();
+        for (Sample sample : samples) {
+            try {
+                Node setNode = sample.math.getChild("sourceSet").getChild("set");
+                add(byType, setNode.getAttr("type"), Set.generateSet(setNode));
+            } catch (Exception e) {
+                // задача с ошибкой в описании
+            }
+        }
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        for (Map.Entry<String, List<Set>> entry : byType.entrySet()) {
+            final List<Set> sets = entry.getValue();
+            result.add(new Benchmark("set", entry.getKey() + " iterator x" + sets.size()) {
+                Object run() {
+                    long count = 0;
+                    for (Set set : sets) {
+                        SetIterator it = set.iterator(1, Math.min(set.getSize(), ELEMENTS));
+                        while (it.hasNext()) {
+                            sink = it.next();
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            });
+            result.add(new Benchmark("set", entry.getKey() + " cursor x" + sets.size()) {
+                Object run() {
+                    long count = 0;
+                    for (Set set : sets) {
+                        SetIterator it = set.cursor(1, Math.min(set.getSize(), ELEMENTS));
+                        while (it.hasNext()) {
+                            sink = it.next();
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Каждая функция из дерева условия вычисляется на первых элементах исходного множества своей задачи.
+     */
+    private static List<Benchmark> functionBenchmarks(List<Sample> samples) {
+        final Map<String, List<Function>> functions = new TreeMap<String, List<Function>>();
+        final Map<Function, Element[]> inputs = new HashMap<Function, Element[]>();
+        for (Sample sample : samples) {
+            try {
+                Node verifier = sample.math.getChild(TaskConstant.VERIFIER);
+                Node functionNode = verifier.getChildIfExists("function");
+                if (functionNode == null) {
+                    continue;
+                }
+                Set source = Set.generateSet(sample.math.getChild("sourceSet").getChild("set"));
+                List<Element> list = new ArrayList<Element>();
+                SetIterator it = source.iterator(1, Math.min(source.getSize(), ELEMENTS / 10));
+                while (it.hasNext()) {
+                    list.add(it.next());
+                }
+                collectFunctions(functionNode, list.toArray(new Element[list.size()]), functions, inputs);
+            } catch (Exception e) {
+                // задача с ошибкой в описании
+            }
+        }
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        for (Map.Entry<String, List<Function>> entry : functions.entrySet()) {
+            final List<Function> list = entry.getValue();
+            result.add(new Benchmark("function", entry.getKey() + " x" + list.size()) {
+                Object run() {
+                    for (Function fn : list) {
+                        Element[] elements = inputs.get(fn);
+                        for (int i = 0; i < elements.length; i++) {
+                            sink = fn.compute(elements[i]);
+                        }
+                    }
+                    return list;
+                }
+            });
+        }
+        return result;
+    }
+
+    private static void collectFunctions(Node node, Element[] elements, Map<String, List<Function>> functions, Map<Function, Element[]> inputs) {
+        try {
+            String type = node.getAttr("type");
+            List<Function> list = functions.get(type);
+            if (list == null || list.size() < INSTANCES) {
+                Function fn = Function.generateFunction(node);
+                for (int i = 0; i < elements.length; i++) {
+                    fn.compute(elements[i]);
+                }
+                add(functions, type, fn);
+                inputs.put(fn, elements);
+            }
+        } catch (Exception e) {
+            // функция не вычисляется на этих элементах
+        }
+        for (Node child : node.getChilds("function")) {
+            collectFunctions(child, elements, functions, inputs);
+        }
+    }
+
+    /**
+     * Перебор исходного множества с проверкой условия верификатора, по типам верификаторов:
+     * одно и то же условие интерпретируется и компилируется.
+     */
+    private static List<Benchmark> conditionBenchmarks(List<Sample> samples) {
+        Map<String, List<Object[]>> byType = new TreeMap<String, List<Object[]>>();
+        for (Sample sample : samples) {
+            try {
+                Node verifier = sample.math.getChild(TaskConstant.VERIFIER);
+                String type = verifier.getAttr("type");
+                if (!CONDITION_VERIFIERS.contains(type)) {
+                    continue;
+                }
+                Node functionNode = verifier.getChild("function");
+                Set source = Set.generateSet(sample.math.getChild("sourceSet").getChild("set"));
+                Function interpreted = Function.generateFunction(functionNode);
+                Function compiled = FunctionCompiler.compile(Function.generateFunction(functionNode));
+                countMatches(source, interpreted);
+                countMatches(source, compiled);
+                add(byType, type, new Object[]{source, interpreted, compiled});
+            } catch (Exception e) {
+                // задача с ошибкой в описании
+            }
+        }
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        for (Map.Entry<String, List<Object[]>> entry : byType.entrySet()) {
+            final List<Object[]> conditions = entry.getValue();
+            for (int i = 1; i <= 2; i++) {
+                final int index = i;
+                result.add(new Benchmark("condition", entry.getKey() + (i == 1 ? " interpreted" : " compiled") + " x" + conditions.size()) {
+                    Object run() {
+                        long count = 0;
+                        for (Object[] condition : conditions) {
+                            count += countMatches((Set) condition[0], (Function) condition[index]);
+                        }
+                        return count;
+                    }
+                });
+            }
+        }
+        return result;
+    }
+
+    private static long countMatches(Set source, Function condition) {
+        long count = 0;
+        SetIterator it = source.cursor(1, Math.min(source.getSize(), ELEMENTS));
+        while (it.hasNext()) {
+            if (Element.ptrue.equals(condition.compute(it.next()))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Полная проверка с неверным ответом: кэш ответов отключен, поэтому каждый раз работает верификатор.
+     */
+    private static List<Benchmark> verifyBenchmarks(List<Sample> samples) {
+        Map<String, List<Object[]>> byCategory = new TreeMap<String, List<Object[]>>();
+        JavaTaskFactory factory = new JavaTaskFactory();
+        PrintStream out = System.out;
+        for (Sample sample : samples) {
+            try {
+                ServerTask task = factory.createServerTask(sample.file.getPath(), 0);
+                ClientTask clientTask = new ClientTaskImpl(task.getTitle(), "", sample.genParams, 0, new ArrayList<String>());
+                clientTask.setAnswer("0");
+                System.setOut(new PrintStream(new OutputStream() {
+                    public void write(int b) {
+                    }
+                }));
+                long start = System.currentTimeMillis();
+                task.verify(clientTask);
+                if (System.currentTimeMillis() - start <= SLOW_VERIFY_MILLIS) {
+                    add(byCategory, sample.category, new Object[]{task, clientTask});
+                }
+            } catch (Exception e) {
+                // задача с ошибкой в описании
+            } finally {
+                System.setOut(out);
+            }
+        }
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        for (Map.Entry<String, List<Object[]>> entry : byCategory.entrySet()) {
+            final List<Object[]> tasks = entry.getValue();
+            result.add(new Benchmark("verify", entry.getKey() + " x" + tasks.size()) {
+                Object run() throws Exception {
+                    boolean accepted = false;
+                    for (Object[] task : tasks) {
+                        accepted |= ((ServerTask) task[0]).verify((ClientTask) task[1]);
+                    }
+                    return accepted;
+                }
+            });
+        }
+        return result;
+    }
+
+    private static Benchmark parserBenchmark() {
+        return new Benchmark("parser", "parseUserAnswer x" + ANSWERS.length) {
+            Object run() throws Exception {
+                Parser parser = new Parser();
+                for (int i = 0; i < ANSWERS.length; i++) {
+                    sink = parser.parseUserAnswer(ANSWERS[i]);
+                }
+                return parser;
+            }
+        };
+    }
+
+    private static List<Benchmark> preprocessorBenchmarks(final List<Sample> samples) {
+        final List<TaskTemplate> templates = new ArrayList<TaskTemplate>();
+        for (Sample sample : samples) {
+            templates.add(TaskTemplate.compile(sample.xml.getMathDescription()));
+        }
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new Benchmark("preprocessor", "generateTask+executeTask x" + samples.size()) {
+            Object run() throws Exception {
+                for (Sample sample : samples) {
+                    Node math = Preprocessor.generateTask(sample.xml.getMathDescription(), sample.genParams);
+                    sink = Preprocessor.executeTask(math, sample.verifierParams);
+                }
+                return samples;
+            }
+        });
+        result.add(new Benchmark("preprocessor", "TaskTemplate.instantiate x" + samples.size()) {
+            Object run() throws Exception {
+                for (int i = 0; i < samples.size(); i++) {
+                    Sample sample = samples.get(i);
+                    sink = templates.get(i).instantiate(sample.genParams, sample.verifierParams);
+                }
+                return templates;
+            }
+        });
+        return result;
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T value) {
+        List<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<T>();
+            map.put(key, list);
+        }
+        if (list.size() < INSTANCES) {
+            list.add(value);
+        }
+    }
+
+    private static void collect(File root, File dir, List<Sample> samples) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(root, child, samples);
+            } else if (child.getName().endsWith(".xml")) {
+                try {
+                    samples.add(new Sample(root, child));
+                } catch (Exception e) {
+                    System.err.println(child + "\tskipped: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Задача с первыми наборами параметров условия и верификации.
+     */
+    private static class Sample {
+
+        private File file;
+
+        private String category;
+
+        private XmlTask xml;
+
+        private Map genParams;
+
+        private Map verifierParams;
+
+        private Node math;
+
+        Sample(File root, File file) throws Exception {
+            this.file = file;
+            String relative = root.toURI().relativize(file.toURI()).getPath();
+            category = relative.indexOf('/') > 0 ? relative.substring(0, relative.indexOf('/')) : ".";
+            xml = new XmlTaskImpl(file.getPath());
+            genParams = firstParameters(xml.getDesriptionParams());
+            verifierParams = firstParameters(xml.getVerifierParams());
+            math = TaskTemplate.compile(xml.getMathDescription()).instantiate(genParams, verifierParams);
+        }
+
+        private static Map firstParameters(Node params) throws Exception {
+            ParametersSandbox sandbox = new ParametersSandbox(params);
+            return sandbox.isEmpty() ? new HashMap() : (Map) sandbox.getIterator().next();
+        }
+    }
+}
@@ -90,6 +90,14 @@ public abstract class Element extends ru.spb.ipo.engine.functions.AbstractFuncti
 
     abstract public int getInt();
 
+    /**
+     * Возвращает целое значение компоненты кортежа с номером index (с 1).
+     * IntTupleElement читает его прямо из массива, не обращаясь к элементу-компоненте.
+     */
+    public int getIntAt(int index) {
+        return getElementAt(index).getInt();
+    }
+
     abstract public Element[] getElements();
 
     abstract public Element getElementAt(int index);
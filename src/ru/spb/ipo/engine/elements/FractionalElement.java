@@ -56,4 +56,8 @@ public class FractionalElement extends IntElement {
     public FractionalNumber getFractionalNumber() {
         return fnumber;
     }
+
+    public boolean returnsInt() {
+        return false;
+    }
 }
\ No newline at end of file
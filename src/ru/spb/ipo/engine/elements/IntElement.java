@@ -21,13 +21,9 @@ package ru.spb.ipo.engine.elements;
 
 import ru.spb.ipo.engine.utils.FractionalNumber;
 
-import java.math.BigInteger;
-
-
 public class IntElement extends Element {
 
     private int value;
-    private FractionalNumber fnumber = null;
 
     public IntElement(int value) {
         this.value = value;
@@ -61,6 +57,14 @@ public class IntElement extends Element {
         return 1;
     }
 
+    public int computeInt(Element parameter) {
+        return getInt();
+    }
+
+    public boolean returnsInt() {
+        return true;
+    }
+
     public int compareTo(Object o) {
         if (!(o instanceof IntElement)) return 1;
         IntElement e = (IntElement) o;
@@ -73,14 +77,7 @@ public class IntElement extends Element {
 
 
     public FractionalNumber getFractionalNumber() {
-        if (fnumber == null) {
-            fnumber = new FractionalNumber(BigInteger.valueOf(value));
-        } else {
-            if (fnumber.getBigInteger().intValue() != value) {
-                fnumber = new FractionalNumber(BigInteger.valueOf(value));
-            }
-        }
-        return fnumber;
+        return FractionalNumber.valueOf(value);
     }
 
 
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.elements;
+
+/**
+ * Кортеж целых чисел, хранящий значения в массиве int[].
+ * Компоненты-элементы создаются один раз и обновляются вместе с массивом,
+ * поэтому один и тот же кортеж можно переиспользовать при переборе множества (см. Set.cursor()).
+ */
+public class IntTupleElement extends ContainerElement {
+
+    private int[] values;
+
+    private Element[] slots;
+
+    public IntTupleElement(int length) {
+        this(new int[length]);
+    }
+
+    public IntTupleElement(int[] values) {
+        this(values, createSlots(values));
+    }
+
+    private IntTupleElement(int[] values, Element[] slots) {
+        super(slots);
+        this.values = values;
+        this.slots = slots;
+    }
+
+    private static Element[] createSlots(int[] values) {
+        Element[] slots = new Element[values.length];
+        for (int i = 0; i < values.length; i++) {
+            slots[i] = new IntElement(values[i]);
+        }
+        return slots;
+    }
+
+    public int getIntAt(int index) {
+        return values[(index - 1) % values.length];
+    }
+
+    /**
+     * Записывает значение компоненты с номером index (с 1).
+     */
+    public void setIntAt(int index, int value) {
+        values[index - 1] = value;
+        slots[index - 1].setInt(value);
+    }
+
+    public void setElementAt(int index, Element element) {
+        int i = index % values.length;
+        values[i] = element.getInt();
+        slots[i].setInt(values[i]);
+    }
+
+    /**
+     * Массив значений кортежа, менять его нельзя.
+     */
+    public int[] getInts() {
+        return values;
+    }
+
+    public Object clone() {
+        return new IntTupleElement(values.clone());
+    }
+
+    /**
+     * Копирует значения кортежа в массив into, если все его компоненты - целые числа.
+     *
+     * @return false, если в кортеже есть не целые компоненты
+     */
+    public static boolean copyInts(Element element, int[] into) {
+        if (element instanceof IntTupleElement && element.getLength() == into.length) {
+            System.arraycopy(((IntTupleElement) element).values, 0, into, 0, into.length);
+            return true;
+        }
+        for (int i = 0; i < into.length; i++) {
+            Element component = element.getElementAt(i + 1);
+            if (component == null || component.getClass() != IntElement.class) {
+                return false;
+            }
+            into[i] = component.getInt();
+        }
+        return true;
+    }
+}
@@ -35,6 +35,21 @@ abstract public class AbstractFunction {
 
     abstract public Element compute(Element parameter);
 
+    /**
+     * Вычисляет функцию, результат которой - целое число.
+     * Функции с целым результатом переопределяют метод, чтобы не создавать промежуточных элементов.
+     */
+    public int computeInt(Element parameter) {
+        return compute(parameter).getInt();
+    }
+
+    /**
+     * Всегда ли результат функции - целое число (IntElement).
+     */
+    public boolean returnsInt() {
+        return false;
+    }
+
     public static AbstractFunction generateAbstractFunction(Node node) throws TaskDeserializationException, SystemException {
 
         if ("element".equals(node.getNodeName()))
@@ -52,8 +67,6 @@ abstract public class AbstractFunction {
         return null;
     }
 
-    private static Parser parser = new Parser();
-
     public static Map<String, String> getAttributes(Node n) {
         Map<String, Node> attrs = n.getAttrs();
         Map result = new HashMap();
@@ -61,6 +74,8 @@ abstract public class AbstractFunction {
             return result;
         }
 
+        // у Parser есть состояние разбора, а функции могут создаваться в нескольких потоках
+        Parser parser = new Parser();
         for (Map.Entry<String, Node> entry : attrs.entrySet()) {
             if (!"type".equals(entry.getValue().getNodeName())) {
                 result.put(entry.getKey(), parser.parse(entry.getValue().getText()));
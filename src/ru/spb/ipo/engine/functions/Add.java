@@ -35,11 +35,19 @@ public class Add extends Function {
     }
 
     public Element compute(Element parameter) {
+        fe.setInt(computeInt(parameter));
+        return fe;
+    }
+
+    public int computeInt(Element parameter) {
         int temp = 0;
         for (int i = 0; i < fns.length; i++) {
-            temp += fns[i].compute(parameter).getInt();
+            temp += fns[i].computeInt(parameter);
         }
-        fe.setInt(temp);
-        return fe;
+        return temp;
+    }
+
+    public boolean returnsInt() {
+        return true;
     }
 }
@@ -22,6 +22,7 @@ package ru.spb.ipo.engine.functions;
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
 import ru.spb.ipo.engine.elements.IntElement;
+import ru.spb.ipo.engine.elements.IntTupleElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
@@ -36,8 +37,13 @@ public class Count extends Function {
     private Element fe;
     private int length;
     private Element[] array;
+    private int[] ints;
     private int axis;
 
+    // для кортежей целых чисел из небольшого диапазона: счетчики значений и число значений с каждым счетчиком
+    private IntHistogram histogram = new IntHistogram();
+    private int[] byCount;
+
     public void initFunction(Node node) throws TaskDeserializationException, SystemException {
         super.initFunction(node);
         Map m = super.getAttributes(node);
@@ -56,6 +62,12 @@ public class Count extends Function {
                 temp[i] = new IntElement(0);
             }
             fe = new ContainerElement(temp);
+            ints = new int[length];
+            byCount = new int[length + 1];
+        }
+
+        if (axis == 0 && IntTupleElement.copyInts(element, ints)) {
+            return countInts();
         }
 
         for (int i = 1; i <= length; i++) {
@@ -84,4 +96,60 @@ public class Count extends Function {
 
         return fe;
     }
+
+    /**
+     * То же, что и compute, но для кортежа целых чисел, скопированного в ints.
+     * Если значения лежат в небольшом диапазоне, кратности считаются гистограммой, а не сортировкой.
+     */
+    private Element countInts() {
+        if (length > 0 && histogram.fit(ints, null)) {
+            return countHistogram();
+        }
+        Arrays.sort(ints);
+        int index = 0;
+        int prev = ints[0];
+        int count = 1;
+        for (int i = 1; i < length; i++) {
+            if (ints[i] == prev) count++;
+            else {
+                prev = ints[i];
+                ints[index++] = count;
+                count = 1;
+            }
+        }
+        ints[index++] = count;
+        for (int i = index; i < length; i++) {
+            ints[i] = 0;
+        }
+        Arrays.sort(ints);
+        for (int i = 0; i < length; i++) {
+            fe.getElementAt(i + 1).setInt(ints[i]);
+        }
+        return fe;
+    }
+
+    private Element countHistogram() {
+        for (int i = 0; i < length; i++) {
+            histogram.add(ints[i], 1);
+        }
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            int count = histogram.take(ints[i]);
+            if (count > 0) {
+                byCount[count]++;
+                distinct++;
+            }
+        }
+        // кратности по возрастанию, недостающие до length места - нули в начале
+        int index = 1;
+        for (; index <= length - distinct; index++) {
+            fe.getElementAt(index).setInt(0);
+        }
+        for (int count = 1; count <= length; count++) {
+            for (; byCount[count] > 0; byCount[count]--) {
+                fe.getElementAt(index++).setInt(count);
+            }
+        }
+        return fe;
+    }
 }
@@ -40,8 +40,16 @@ public class Div extends Function {
     }
 
     public Element compute(Element parameter) {
-        fe.setInt(fns[0].compute(parameter).getInt() / fns[1].compute(parameter).getInt());
+        fe.setInt(computeInt(parameter));
         return fe;
     }
 
+    public int computeInt(Element parameter) {
+        return fns[0].computeInt(parameter) / fns[1].computeInt(parameter);
+    }
+
+    public boolean returnsInt() {
+        return true;
+    }
+
 }
\ No newline at end of file
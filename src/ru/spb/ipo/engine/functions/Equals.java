@@ -20,10 +20,24 @@
 package ru.spb.ipo.engine.functions;
 
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.exception.SystemException;
+import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.task.Node;
 
 public class Equals extends Function {
 
+    // оба аргумента - целые числа, сравниваем без создания элементов
+    private boolean intArguments;
+
+    public void initFunction(Node node) throws TaskDeserializationException, SystemException {
+        super.initFunction(node);
+        intArguments = fns.length == 2 && fns[0].returnsInt() && fns[1].returnsInt();
+    }
+
     public Element compute(Element parameter) {
+        if (intArguments) {
+            return fns[0].computeInt(parameter) == fns[1].computeInt(parameter) ? Element.ptrue : Element.pfalse;
+        }
         if ((fns[0] == null) || (fns[1] == null)) System.err.println("fns [0] or [1] is null");
 
         if (fns[0].compute(parameter).equals(fns[1].compute(parameter))) return Element.ptrue;
@@ -22,6 +22,7 @@ package ru.spb.ipo.engine.functions;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.utils.Utils;
 
 import java.util.List;
 
@@ -41,12 +42,19 @@ abstract public class Function extends AbstractFunction {
         }
     }
 
+    /**
+     * Возвращает аргументы функции.
+     */
+    public AbstractFunction[] getArguments() {
+        return fns;
+    }
+
     public static Function generateFunction(Node node) throws TaskDeserializationException, SystemException {
         String shortType = node.getAttr("type");
         String type = "ru.spb.ipo.engine.functions." + shortType;
         Function fn = null;
         try {
-            fn = (Function) Class.forName(type).newInstance();
+            fn = (Function) Utils.forName(type).newInstance();
             fn.initFunction(node);
         } catch (ClassNotFoundException e) {
 //    		throw new SystemException("Couldn't find class for function " + type, e);
@@ -0,0 +1,305 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.spb.ipo.engine.functions;
+
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntElement;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Собирает дерево функций-условий в одну цепочку MethodHandle, которую JIT компилирует как единый метод:
+ * Projection превращается в прямое обращение к компоненте кортежа, арифметика и сравнения считаются
+ * на int без промежуточных элементов, And/Or - через guardWithTest с тем же порядком вычисления.
+ * Функции, которые компилятор не знает, вызываются как обычно через compute.
+ * <p/>
+ * Компилируются только условия (And, Or, Not, Equals, Greater, Smaller), результат которых - ptrue или pfalse,
+ * остальные функции возвращаются без изменений.
+ */
+public class FunctionCompiler {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType INT = MethodType.methodType(int.class, Element.class);
+    private static final MethodType BOOLEAN = MethodType.methodType(boolean.class, Element.class);
+    private static final MethodType ELEMENT = MethodType.methodType(Element.class, Element.class);
+
+    private static final MethodHandle COMPUTE;
+    private static final MethodHandle COMPUTE_INT;
+    private static final MethodHandle GET_ELEMENT_AT;
+    private static final MethodHandle GET_INT_AT;
+    private static final MethodHandle IS_TRUE;
+    private static final MethodHandle NOT;
+    private static final MethodHandle ADD;
+    private static final MethodHandle SUB;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle DIV;
+    private static final MethodHandle MOD;
+    private static final MethodHandle INT_EQUALS;
+    private static final MethodHandle INT_COMPARE;
+    private static final MethodHandle ELEMENT_INT_EQUALS;
+    private static final MethodHandle INT_ELEMENT_EQUALS;
+    private static final MethodHandle ELEMENTS_EQUALS;
+    private static final MethodHandle ELEMENTS_COMPARE;
+    private static final MethodHandle GREATER;
+    private static final MethodHandle SMALLER;
+
+    static {
+        try {
+            COMPUTE = LOOKUP.findVirtual(AbstractFunction.class, "compute", ELEMENT);
+            COMPUTE_INT = LOOKUP.findVirtual(AbstractFunction.class, "computeInt", INT);
+            GET_ELEMENT_AT = LOOKUP.findVirtual(Element.class, "getElementAt", MethodType.methodType(Element.class, int.class));
+            GET_INT_AT = LOOKUP.findVirtual(Element.class, "getIntAt", MethodType.methodType(int.class, int.class));
+            IS_TRUE = findStatic("isTrue", BOOLEAN);
+            NOT = findStatic("not", MethodType.methodType(boolean.class, boolean.class));
+            MethodType binary = MethodType.methodType(int.class, int.class, int.class);
+            ADD = findStatic("add", binary);
+            SUB = findStatic("sub", binary);
+            NEGATE = findStatic("negate", MethodType.methodType(int.class, int.class));
+            DIV = findStatic("div", binary);
+            MOD = findStatic("mod", binary);
+            INT_EQUALS = findStatic("intEquals", MethodType.methodType(boolean.class, int.class, int.class));
+            INT_COMPARE = findStatic("intCompare", binary);
+            ELEMENT_INT_EQUALS = findStatic("elementIntEquals", MethodType.methodType(boolean.class, Element.class, int.class));
+            INT_ELEMENT_EQUALS = findStatic("intElementEquals", MethodType.methodType(boolean.class, int.class, Element.class));
+            ELEMENTS_EQUALS = findStatic("elementsEquals", MethodType.methodType(boolean.class, Element.class, Element.class));
+            ELEMENTS_COMPARE = findStatic("elementsCompare", MethodType.methodType(int.class, Element.class, Element.class));
+            GREATER = findStatic("greater", MethodType.methodType(boolean.class, int.class));
+            SMALLER = findStatic("smaller", MethodType.methodType(boolean.class, int.class));
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findStatic(String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        return LOOKUP.findStatic(FunctionCompiler.class, name, type);
+    }
+
+    /**
+     * Возвращает скомпилированное условие или саму функцию, если она не является условием.
+     * Результат, как и исходное дерево, хранит промежуточные элементы и не может использоваться из нескольких потоков.
+     */
+    public static Function compile(Function function) {
+        if (!isCondition(function)) {
+            return function;
+        }
+        return new CompiledFunction(function, condition(function));
+    }
+
+    private static boolean isCondition(AbstractFunction function) {
+        Class c = function.getClass();
+        return c == And.class || c == Or.class || c == Not.class || c == Equals.class || c == Greater.class || c == Smaller.class;
+    }
+
+    /**
+     * (Element)boolean - истинно ли значение функции, т.е. не равно ли оно pfalse.
+     */
+    private static MethodHandle condition(AbstractFunction function) {
+        Class c = function.getClass();
+        AbstractFunction[] fns = function instanceof Function ? ((Function) function).fns : null;
+        if (c == And.class || c == Or.class) {
+            boolean and = c == And.class;
+            MethodHandle result = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, and), 0, Element.class);
+            for (int i = fns.length - 1; i >= 0; i--) {
+                MethodHandle test = condition(fns[i]);
+                MethodHandle stop = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, !and), 0, Element.class);
+                result = and ? MethodHandles.guardWithTest(test, result, stop) : MethodHandles.guardWithTest(test, stop, result);
+            }
+            return result;
+        }
+        if (c == Not.class) {
+            return MethodHandles.filterReturnValue(condition(fns[0]), NOT);
+        }
+        if (c == Equals.class && fns.length == 2) {
+            if (fns[0].returnsInt() && fns[1].returnsInt()) {
+                return combine(INT_EQUALS, intValue(fns[0]), intValue(fns[1]));
+            }
+            if (fns[1].returnsInt()) {
+                return combine(ELEMENT_INT_EQUALS, element(fns[0]), intValue(fns[1]));
+            }
+            if (fns[0].returnsInt()) {
+                return combine(INT_ELEMENT_EQUALS, intValue(fns[0]), element(fns[1]));
+            }
+            return combine(ELEMENTS_EQUALS, element(fns[0]), element(fns[1]));
+        }
+        if ((c == Greater.class || c == Smaller.class) && fns.length == 2) {
+            MethodHandle compare = fns[0].returnsInt() && fns[1].returnsInt()
+                    ? combine(INT_COMPARE, intValue(fns[0]), intValue(fns[1]))
+                    : combine(ELEMENTS_COMPARE, element(fns[0]), element(fns[1]));
+            return MethodHandles.filterReturnValue(compare, c == Greater.class ? GREATER : SMALLER);
+        }
+        return MethodHandles.filterReturnValue(element(function), IS_TRUE);
+    }
+
+    /**
+     * (Element)int - то же, что и function.computeInt.
+     */
+    private static MethodHandle intValue(AbstractFunction function) {
+        Class c = function.getClass();
+        if (c == IntElement.class) {
+            return MethodHandles.dropArguments(MethodHandles.constant(int.class, ((IntElement) function).getInt()), 0, Element.class);
+        }
+        if (c == Projection.class) {
+            Projection projection = (Projection) function;
+            return MethodHandles.filterReturnValue(element(projection.fns[0]), MethodHandles.insertArguments(GET_INT_AT, 1, projection.getAxis()));
+        }
+        AbstractFunction[] fns = function instanceof Function ? ((Function) function).fns : null;
+        if ((c == Add.class || c == Sub.class) && fns.length > 0) {
+            MethodHandle result = intValue(fns[0]);
+            if (c == Sub.class && fns.length == 1) {
+                return MethodHandles.filterReturnValue(result, NEGATE);
+            }
+            for (int i = 1; i < fns.length; i++) {
+                result = combine(c == Add.class ? ADD : SUB, result, intValue(fns[i]));
+            }
+            return result;
+        }
+        if (c == Div.class) {
+            return combine(DIV, intValue(fns[0]), intValue(fns[1]));
+        }
+        if (c == Mod.class) {
+            return combine(MOD, intValue(fns[0]), intValue(fns[1]));
+        }
+        return COMPUTE_INT.bindTo(function);
+    }
+
+    /**
+     * (Element)Element - то же, что и function.compute.
+     */
+    private static MethodHandle element(AbstractFunction function) {
+        if (function instanceof CurrentElement) {
+            return MethodHandles.identity(Element.class);
+        }
+        if (function.getClass() == Projection.class) {
+            Projection projection = (Projection) function;
+            return MethodHandles.filterReturnValue(element(projection.fns[0]), MethodHandles.insertArguments(GET_ELEMENT_AT, 1, projection.getAxis()));
+        }
+        return COMPUTE.bindTo(function);
+    }
+
+    /**
+     * Подставляет значения first(e) и second(e) в двухместную операцию, результат - функция от e.
+     */
+    private static MethodHandle combine(MethodHandle operation, MethodHandle first, MethodHandle second) {
+        MethodHandle filtered = MethodHandles.filterArguments(operation, 0, first, second);
+        return MethodHandles.permuteArguments(filtered, filtered.type().dropParameterTypes(1, 2), 0, 0);
+    }
+
+    private static boolean isTrue(Element value) {
+        return !Element.pfalse.equals(value);
+    }
+
+    private static boolean not(boolean value) {
+        return !value;
+    }
+
+    private static int add(int a, int b) {
+        return a + b;
+    }
+
+    private static int sub(int a, int b) {
+        return a - b;
+    }
+
+    private static int negate(int a) {
+        return -a;
+    }
+
+    private static int div(int a, int b) {
+        return a / b;
+    }
+
+    private static int mod(int a, int base) {
+        return base == 0 ? Integer.MAX_VALUE : a % base;
+    }
+
+    private static boolean intEquals(int a, int b) {
+        return a == b;
+    }
+
+    private static int intCompare(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static boolean elementIntEquals(Element a, int b) {
+        if (a.getClass() == IntElement.class) {
+            return a.getInt() == b;
+        }
+        return a.equals(new IntElement(b));
+    }
+
+    private static boolean intElementEquals(int a, Element b) {
+        if (b.getClass() == IntElement.class) {
+            return a == b.getInt();
+        }
+        return new IntElement(a).equals(b);
+    }
+
+    private static boolean elementsEquals(Element a, Element b) {
+        return a.equals(b);
+    }
+
+    private static int elementsCompare(Element a, Element b) {
+        return a.compareTo(b);
+    }
+
+    private static boolean greater(int compare) {
+        return compare > 0;
+    }
+
+    private static boolean smaller(int compare) {
+        return compare < 0;
+    }
+
+    /**
+     * Скомпилированное условие, возвращает ptrue или pfalse.
+     */
+    private static class CompiledFunction extends Function {
+
+        private final Function source;
+
+        private final MethodHandle condition;
+
+        CompiledFunction(Function source, MethodHandle condition) {
+            this.source = source;
+            this.condition = condition;
+            fns = source.fns;
+        }
+
+        public Element compute(Element parameter) {
+            try {
+                return (boolean) condition.invokeExact(parameter) ? Element.ptrue : Element.pfalse;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public String toString() {
+            return "compiled " + source;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.functions;
+
+/**
+ * Счетчики значений кортежей целых чисел из небольшого диапазона в переиспользуемом массиве,
+ * замена сортировки для Count и Like. Вызывающий обязан обнулить использованные счетчики через clear.
+ */
+class IntHistogram {
+
+    // самый широкий диапазон значений, для которого заводится массив счетчиков
+    static final int MAX_RANGE = 1 << 12;
+
+    private int[] counts = new int[64];
+
+    private int min;
+
+    /**
+     * Настраивает счетчики на значения a и b (b может быть null).
+     *
+     * @return false, если диапазон значений шире MAX_RANGE и нужно сортировать
+     */
+    boolean fit(int[] a, int[] b) {
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (int i = 0; i < a.length; i++) {
+            lo = Math.min(lo, a[i]);
+            hi = Math.max(hi, a[i]);
+        }
+        if (b != null) {
+            for (int i = 0; i < b.length; i++) {
+                lo = Math.min(lo, b[i]);
+                hi = Math.max(hi, b[i]);
+            }
+        }
+        long range = (long) hi - lo + 1;
+        if (range > MAX_RANGE) {
+            return false;
+        }
+        if (range > counts.length) {
+            counts = new int[Integer.highestOneBit((int) range - 1) << 1];
+        }
+        min = lo;
+        return true;
+    }
+
+    /**
+     * Прибавляет delta к счетчику значения v, возвращает новое значение счетчика.
+     */
+    int add(int v, int delta) {
+        return counts[v - min] += delta;
+    }
+
+    /**
+     * Обнуляет счетчик значения v, возвращает его прежнее значение.
+     */
+    int take(int v) {
+        int count = counts[v - min];
+        counts[v - min] = 0;
+        return count;
+    }
+
+    void clear(int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            counts[values[i] - min] = 0;
+        }
+    }
+}
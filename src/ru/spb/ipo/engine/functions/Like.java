@@ -20,6 +20,7 @@
 package ru.spb.ipo.engine.functions;
 
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntTupleElement;
 
 import java.util.Arrays;
 
@@ -27,6 +28,9 @@ public class Like extends Function {
 
     private int length;
     private Element[] array1, array2;
+    private int[] ints1, ints2;
+
+    private IntHistogram histogram = new IntHistogram();
 
     public Element compute(Element parameter) {
         if ((fns[0] == null) || (fns[1] == null)) System.err.println("fns [0] or [1] is null");
@@ -37,6 +41,12 @@ public class Like extends Function {
             length = el1.getLength();
             array1 = new Element[length];
             array2 = new Element[length];
+            ints1 = new int[length];
+            ints2 = new int[length];
+        }
+
+        if (IntTupleElement.copyInts(el1, ints1) && IntTupleElement.copyInts(el2, ints2)) {
+            return likeInts() ? Element.ptrue : Element.pfalse;
         }
 
         for (int i = 1; i <= length; i++) {
@@ -54,5 +64,39 @@ public class Like extends Function {
         return Element.ptrue;
     }
 
+    /**
+     * Совпадают ли мультимножества ints1 и ints2. Сначала сравниваются суммы значений и их хешей
+     * (разные суммы - разные мультимножества), затем счетчики значений или, при широком диапазоне, сортировка.
+     */
+    private boolean likeInts() {
+        long sum = 0;
+        long mixed = 0;
+        for (int i = 0; i < length; i++) {
+            sum += (long) ints1[i] - ints2[i];
+            mixed += mix(ints1[i]) - mix(ints2[i]);
+        }
+        if (sum != 0 || mixed != 0) {
+            return false;
+        }
+        if (!histogram.fit(ints1, ints2)) {
+            Arrays.sort(ints1);
+            Arrays.sort(ints2);
+            return Arrays.equals(ints1, ints2);
+        }
+        for (int i = 0; i < length; i++) {
+            histogram.add(ints1[i], 1);
+        }
+        boolean like = true;
+        for (int i = 0; i < length && like; i++) {
+            like = histogram.add(ints2[i], -1) >= 0;
+        }
+        histogram.clear(ints1);
+        histogram.clear(ints2);
+        return like;
+    }
 
+    private static long mix(int v) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
 }
@@ -40,13 +40,20 @@ public class Mod extends Function {
     }
 
     public Element compute(Element parameter) {
-        int base = fns[1].compute(parameter).getInt();
+        fe.setInt(computeInt(parameter));
+        return fe;
+    }
+
+    public int computeInt(Element parameter) {
+        int base = fns[1].computeInt(parameter);
         if (base == 0) {
-            fe.setInt(Integer.MAX_VALUE);
-        } else {
-            fe.setInt(fns[0].compute(parameter).getInt() % base);
+            return Integer.MAX_VALUE;
         }
-        return fe;
+        return fns[0].computeInt(parameter) % base;
+    }
+
+    public boolean returnsInt() {
+        return true;
     }
 
 }
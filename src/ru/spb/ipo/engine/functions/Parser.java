@@ -37,7 +37,7 @@ public class Parser extends Function {
             FractionalNumber exp = (FractionalNumber) m.get("exp");
             exp = mod == null ? exp : new FractionalNumber(exp.getBigInteger().mod(mod.getBigInteger()));
             fe = new FractionalElement(exp);
-        } else fe = new FractionalElement(new FractionalNumber(0));
+        } else fe = new FractionalElement(FractionalNumber.ZERO);
     }
 
     public Element compute(Element e) {
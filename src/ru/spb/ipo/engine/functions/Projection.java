@@ -39,8 +39,16 @@ public class Projection extends Function {
         }
     }
 
+    public int getAxis() {
+        return axis;
+    }
+
     public Element compute(Element parameter) {
         return fns[0].compute(parameter).getElementAt(axis);
     }
 
+    public int computeInt(Element parameter) {
+        return fns[0].compute(parameter).getIntAt(axis);
+    }
+
 }
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.spb.ipo.engine.functions;
+
+import ru.spb.ipo.engine.elements.Element;
+
+import java.util.BitSet;
+
+/**
+ * Статический анализ: какие компоненты текущего кортежа читает функция.
+ * Компоненты определяются по Projection над current-set-element, остальные обращения к текущему элементу
+ * (Count, Like, сравнение кортежа целиком и т.п.) считаются чтением всего кортежа.
+ */
+public class ProjectionAxes {
+
+    /**
+     * Возвращает номера компонент (с 1), от которых зависит значение функции для кортежей длины length,
+     * или null, если функция зависит от кортежа целиком.
+     */
+    public static BitSet of(AbstractFunction function, int length) {
+        BitSet axes = new BitSet();
+        return collect(function, length, axes) ? axes : null;
+    }
+
+    private static boolean collect(AbstractFunction function, int length, BitSet axes) {
+        if (function == null || function instanceof Element) {
+            return true;
+        }
+        if (function instanceof CurrentElement) {
+            return false;
+        }
+        // Even и Odd проверяют сам текущий элемент, а не аргументы
+        if (function instanceof Even || function instanceof Odd) {
+            return false;
+        }
+        if (function instanceof Projection) {
+            Projection projection = (Projection) function;
+            AbstractFunction argument = projection.getArguments()[0];
+            if (argument instanceof CurrentElement) {
+                int axis = projection.getAxis();
+                if (axis < 1) {
+                    return false;
+                }
+                axes.set((axis - 1) % length + 1);
+                return true;
+            }
+            return collect(argument, length, axes);
+        }
+        AbstractFunction[] fns = ((Function) function).getArguments();
+        if (fns != null) {
+            for (int i = 0; i < fns.length; i++) {
+                if (!collect(fns[i], length, axes)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
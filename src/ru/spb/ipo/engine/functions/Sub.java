@@ -35,17 +35,23 @@ public class Sub extends Function {
     }
 
     public Element compute(Element parameter) {
+        fe.setInt(computeInt(parameter));
+        return fe;
+    }
 
+    public int computeInt(Element parameter) {
         if (fns.length == 1) {
-            fe.setInt(-fns[0].compute(parameter).getInt());
-            return fe;
+            return -fns[0].computeInt(parameter);
         }
 
-        int temp = fns[0].compute(parameter).getInt();
+        int temp = fns[0].computeInt(parameter);
         for (int i = 1; i < fns.length; i++) {
-            temp -= fns[i].compute(parameter).getInt();
+            temp -= fns[i].computeInt(parameter);
         }
-        fe.setInt(temp);
-        return fe;
+        return temp;
+    }
+
+    public boolean returnsInt() {
+        return true;
     }
 }
\ No newline at end of file
@@ -36,11 +36,18 @@ public class ToDigit extends Function {
     }
 
     public Element compute(Element parameter) {
-        Element e = fns[0].compute(parameter);
-        fe.setInt(computeAnswer(e));
+        fe.setInt(computeInt(parameter));
         return fe;
     }
 
+    public int computeInt(Element parameter) {
+        return computeAnswer(fns[0].compute(parameter));
+    }
+
+    public boolean returnsInt() {
+        return true;
+    }
+
     public static int computeAnswer(Element e) {
         if (!(e instanceof ContainerElement)) {
             return e.getInt();
@@ -49,7 +56,7 @@ public class ToDigit extends Function {
             int res = 0;
             int power = 1;
             for (int i = size; i >= 1; i--) {
-                res = power * e.getElementAt(i).getInt() + res;
+                res = power * e.getIntAt(i) + res;
                 power = power * 10;
             }
             return res;
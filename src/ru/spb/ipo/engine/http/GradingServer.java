@@ -0,0 +1,370 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import ru.spb.ipo.engine.VerifyScheduler;
+import ru.spb.ipo.engine.exception.SystemException;
+import ru.spb.ipo.engine.exception.UserAnswerParseException;
+import ru.spb.ipo.engine.rmi.Server;
+import ru.spb.ipo.engine.rmi.ServerImpl;
+import ru.spb.ipo.engine.rmi.UserChoice;
+import ru.spb.ipo.engine.rmi.VerifyFuture;
+import ru.spb.ipo.engine.task.ClientTask;
+import ru.spb.ipo.engine.utils.MyLogger;
+import ru.spb.ipo.engine.utils.SystemProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * HTTP-сервис проверки поверх Server без графического клиента.
+ * <p/>
+ * GET /contests, GET /problems?contest=, GET /problem?contest=&problem=[&client=],
+ * POST /verify с телом {"choice": {...}, "task": {...}}, GET /status.
+ * <p/>
+ * Легкие запросы обслуживает общий пул, проверка идет в полосах VerifyScheduler, и ответ на /verify
+ * отправляется по ее завершении, не занимая ни одного потока в ожидании. При переполнении очереди
+ * полосы /verify сразу отвечает 503. Повторная отправка того же клиента отменяет предыдущую
+ * проверку (409), истекший срок дает 504.
+ * <p/>
+ * Задача из /problem содержит подпись ее параметров (ParamsSigner): /verify с параметрами,
+ * которые не выдавались этому клиенту для этой задачи, отклоняется (403). Параметр client
+ * не подтверждается и служит только для очереди; повторная отправка заменяет предыдущую
+ * проверку той же выданной задачи (ее метки nonce), а не проверку клиента.
+ * Тело /verify больше MAX_BODY не читается целиком, ответ 413.
+ */
+public class GradingServer {
+
+    // наибольший размер тела /verify: выбор, задача с условием и ответ
+    private static final int MAX_BODY = 16 * 1024;
+
+    private final Server server;
+
+    private final HttpServer http;
+
+    private final ExecutorService requestExecutor;
+
+    private final ParamsSigner signer = new ParamsSigner();
+
+    public GradingServer(Server server, int port, int threads) throws IOException {
+        this.server = server;
+        requestExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("http"));
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.setExecutor(requestExecutor);
+        http.createContext("/contests", new JsonHandler("GET") {
+            protected Object process(HttpExchange exchange) throws Exception {
+                return JsonProtocol.contests(GradingServer.this.server.getContestList());
+            }
+        });
+        http.createContext("/problems", new JsonHandler("GET") {
+            protected Object process(HttpExchange exchange) throws Exception {
+                Map<String, String> query = parseQuery(exchange);
+                return JsonProtocol.problems(GradingServer.this.server.getProblemList(choice(query, false)));
+            }
+        });
+        http.createContext("/problem", new JsonHandler("GET") {
+            protected Object process(HttpExchange exchange) throws Exception {
+                Map<String, String> query = parseQuery(exchange);
+                Map<String, Object> result = new LinkedHashMap<String, Object>();
+                UserChoice uc = choice(query, true);
+                ClientTask task = GradingServer.this.server.getProblem(uc);
+                Map<String, Object> taskJson = JsonProtocol.clientTask(task);
+                String nonce = signer.newNonce();
+                taskJson.put("nonce", nonce);
+                taskJson.put("signature", signer.sign(uc, task.getGenParams(), nonce));
+                result.put("choice", JsonProtocol.userChoice(uc));
+                result.put("task", taskJson);
+                return result;
+            }
+        });
+        http.createContext("/status", new JsonHandler("GET") {
+            protected Object process(HttpExchange exchange) {
+                Map<String, Object> result = new LinkedHashMap<String, Object>();
+                result.put("lanes", lanes(VerifyScheduler.instance.getFastLane(), VerifyScheduler.instance.getHeavyLane()));
+                return result;
+            }
+        });
+        http.createContext("/verify", new VerifyHandler());
+    }
+
+    public void start() {
+        http.start();
+        MyLogger.getLogger().info("Grading server started on port " + http.getAddress().getPort());
+    }
+
+    public void stop(int delaySeconds) {
+        http.stop(delaySeconds);
+        requestExecutor.shutdown();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    private static Map<String, Object> lanes(VerifyScheduler.Lane... lanes) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (VerifyScheduler.Lane lane : lanes) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("queued", lane.getQueueDepth());
+            map.put("clients", lane.getQueuedClients());
+            map.put("started", lane.getStarted());
+            map.put("rejected", lane.getRejected());
+            map.put("avgWaitMillis", lane.getAverageWaitMillis());
+            map.put("maxWaitMillis", lane.getMaxWaitMillis());
+            result.put(lane.getName(), map);
+        }
+        return result;
+    }
+
+    private UserChoice choice(Map<String, String> query, boolean withProblem) throws SystemException {
+        UserChoice uc = server.getUC(new UserChoice(query.get("client")), parseLong(query, "contest"));
+        if (withProblem) {
+            uc.setProblemId(parseLong(query, "problem"));
+        }
+        return uc;
+    }
+
+    /**
+     * Запрос разбирается и ставится в очередь в потоке легких запросов, ответ отправляет
+     * поток, завершивший проверку.
+     */
+    private class VerifyHandler implements HttpHandler {
+
+        public void handle(final HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "POST expected");
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && length.trim().length() > 0 && parseLength(length) > MAX_BODY) {
+                sendError(exchange, 413, "Request body exceeds " + MAX_BODY + " bytes");
+                return;
+            }
+            VerifyFuture future;
+            try {
+                Object json = Json.parse(readBody(exchange));
+                if (!(json instanceof Map)) {
+                    throw new IllegalArgumentException("object expected");
+                }
+                UserChoice uc = JsonProtocol.userChoice(JsonProtocol.getObject((Map) json, "choice"), server);
+                Map taskJson = JsonProtocol.getObject((Map) json, "task");
+                ClientTask task = JsonProtocol.clientTask(taskJson);
+                Object nonce = taskJson.get("nonce");
+                Object signature = taskJson.get("signature");
+                if (nonce == null || !signer.verify(uc, task.getGenParams(), nonce.toString(), signature == null ? null : signature.toString())) {
+                    throw new SecurityException("Task parameters were not issued for this client and problem");
+                }
+                future = server.verifyAsync(uc, task, null, "http:" + nonce);
+            } catch (BodyTooLargeException e) {
+                sendError(exchange, 413, e.getMessage());
+                return;
+            } catch (IOException e) {
+                sendError(exchange, 400, "Can't read request: " + e.getMessage());
+                return;
+            } catch (Exception e) {
+                handleError(exchange, e);
+                return;
+            }
+            future.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                public void accept(Boolean correct, Throwable e) {
+                    if (e != null) {
+                        handleError(exchange, e);
+                        return;
+                    }
+                    Map<String, Object> result = new LinkedHashMap<String, Object>();
+                    result.put("correct", correct);
+                    try {
+                        send(exchange, 200, result);
+                    } catch (IOException ex) {
+                        MyLogger.getLogger().warning("Can't send response: " + ex.getMessage());
+                        exchange.close();
+                    }
+                }
+            });
+        }
+    }
+
+    private abstract static class JsonHandler implements HttpHandler {
+
+        private final String method;
+
+        JsonHandler(String method) {
+            this.method = method;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!method.equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, method + " expected");
+                return;
+            }
+            try {
+                send(exchange, 200, process(exchange));
+            } catch (Exception e) {
+                handleError(exchange, e);
+            }
+        }
+
+        protected abstract Object process(HttpExchange exchange) throws Exception;
+    }
+
+    private static void handleError(HttpExchange exchange, Throwable e) {
+        try {
+            if (e instanceof IllegalArgumentException || e instanceof UserAnswerParseException) {
+                sendError(exchange, 400, e.getMessage());
+            } else if (e instanceof SecurityException) {
+                sendError(exchange, 403, e.getMessage());
+            } else if (e instanceof RejectedExecutionException) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, e.getMessage());
+            } else if (e instanceof CancellationException) {
+                sendError(exchange, 409, "Replaced by a newer submission");
+            } else if (e instanceof TimeoutException) {
+                sendError(exchange, 504, e.getMessage());
+            } else if (e instanceof IndexOutOfBoundsException) {
+                sendError(exchange, 404, "No such contest or problem");
+            } else {
+                MyLogger.getLogger().warning("Request " + exchange.getRequestURI() + " failed: " + e);
+                sendError(exchange, 500, e.getMessage());
+            }
+        } catch (IOException ex) {
+            MyLogger.getLogger().warning("Can't send response: " + ex.getMessage());
+            exchange.close();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("error", message);
+        send(exchange, status, result);
+    }
+
+    private static void send(HttpExchange exchange, int status, Object result) throws IOException {
+        byte[] bytes = Json.write(result).getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (out.size() + read > MAX_BODY) {
+                    throw new BodyTooLargeException();
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws IOException {
+        Map<String, String> query = new HashMap<String, String>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Тело запроса длиннее MAX_BODY (без Content-Length это выясняется при чтении).
+     */
+    private static class BodyTooLargeException extends IOException {
+
+        BodyTooLargeException() {
+            super("Request body exceeds " + MAX_BODY + " bytes");
+        }
+    }
+
+    private static long parseLong(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("parameter '" + name + "' expected");
+        }
+        return Long.parseLong(value);
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + "-" + counter.incrementAndGet());
+        }
+    }
+
+    /**
+     * Запуск из каталога с tests.xml: GradingServer [port].
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : SystemProperties.getInt(SystemProperties.HTTP_PORT);
+        GradingServer grading = new GradingServer(new ServerImpl(), port, SystemProperties.getInt(SystemProperties.HTTP_THREADS));
+        grading.start();
+    }
+}
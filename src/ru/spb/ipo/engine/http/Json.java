@@ -0,0 +1,296 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Минимальный JSON для протокола сервера проверки: объекты читаются в Map, массивы в List,
+ * целые числа в Long, дробные в Double.
+ */
+public class Json {
+
+    private final String s;
+
+    private int pos;
+
+    private Json(String s) {
+        this.s = s;
+    }
+
+    public static Object parse(String s) {
+        Json json = new Json(s);
+        Object value = json.value();
+        json.skipSpaces();
+        if (json.pos != s.length()) {
+            throw json.error("end of input expected");
+        }
+        return value;
+    }
+
+    public static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    private static void write(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, sb);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Object o : ((Map) value).entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), sb);
+                sb.append(':');
+                write(entry.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            Collection collection = value instanceof Collection ? (Collection) value : java.util.Arrays.asList((Object[]) value);
+            sb.append('[');
+            boolean first = true;
+            for (Object o : collection) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(o, sb);
+            }
+            sb.append(']');
+        } else {
+            writeString(value.toString(), sb);
+        }
+    }
+
+    private static void writeString(String value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private Object value() {
+        skipSpaces();
+        if (pos >= s.length()) {
+            throw error("value expected");
+        }
+        char c = s.charAt(pos);
+        if (c == '{') {
+            return object();
+        }
+        if (c == '[') {
+            return array();
+        }
+        if (c == '"') {
+            return string();
+        }
+        if (s.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        }
+        if (s.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        }
+        if (s.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        return number();
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        pos++;
+        skipSpaces();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipSpaces();
+            if (peek() != '"') {
+                throw error("key expected");
+            }
+            String key = string();
+            skipSpaces();
+            expect(':');
+            map.put(key, value());
+            skipSpaces();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<Object>();
+        pos++;
+        skipSpaces();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipSpaces();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= s.length()) {
+                throw error("unterminated string");
+            }
+            char c = s.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= s.length()) {
+                throw error("unterminated escape");
+            }
+            char e = s.charAt(pos++);
+            switch (e) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > s.length()) {
+                        throw error("bad unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(e);
+            }
+        }
+    }
+
+    private Number number() {
+        int start = pos;
+        boolean fraction = false;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                fraction = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String number = s.substring(start, pos);
+        try {
+            return fraction ? (Number) Double.valueOf(number) : (Number) Long.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw error("bad number '" + number + "'");
+        }
+    }
+
+    private char peek() {
+        return pos < s.length() ? s.charAt(pos) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("'" + c + "' expected");
+        }
+        pos++;
+    }
+
+    private void skipSpaces() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("JSON: " + message + " at " + pos);
+    }
+}
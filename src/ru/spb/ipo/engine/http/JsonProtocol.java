@@ -0,0 +1,139 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.http;
+
+import ru.spb.ipo.engine.exception.SystemException;
+import ru.spb.ipo.engine.rmi.ContestProxy;
+import ru.spb.ipo.engine.rmi.ProblemProxy;
+import ru.spb.ipo.engine.rmi.Server;
+import ru.spb.ipo.engine.rmi.UserChoice;
+import ru.spb.ipo.engine.task.ClientTask;
+import ru.spb.ipo.engine.task.ClientTaskImpl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Представление объектов Server в JSON. Картинки условия (Icon) не передаются.
+ */
+public class JsonProtocol {
+
+    public static List<Object> contests(ContestProxy[] contests) {
+        List<Object> list = new ArrayList<Object>(contests.length);
+        for (ContestProxy contest : contests) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("id", contest.getId());
+            map.put("title", contest.getTitle());
+            list.add(map);
+        }
+        return list;
+    }
+
+    public static List<Object> problems(ProblemProxy[] problems) {
+        List<Object> list = new ArrayList<Object>(problems.length);
+        for (ProblemProxy problem : problems) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("id", problem.getId());
+            map.put("title", problem.getTitle());
+            list.add(map);
+        }
+        return list;
+    }
+
+    public static Map<String, Object> userChoice(UserChoice uc) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("clientId", uc.getClientId());
+        map.put("contestId", uc.getContestId());
+        map.put("contestName", uc.getContestName());
+        map.put("problemId", uc.getProblemId());
+        return map;
+    }
+
+    /**
+     * Выбор восстанавливается через сервер: название конкурса берется с сервера, а не из запроса.
+     */
+    public static UserChoice userChoice(Map json, Server server) throws SystemException {
+        Object clientId = json.get("clientId");
+        UserChoice uc = server.getUC(new UserChoice(clientId == null ? null : clientId.toString()), getLong(json, "contestId"));
+        uc.setProblemId(getLong(json, "problemId"));
+        return uc;
+    }
+
+    public static Map<String, Object> clientTask(ClientTask task) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("problemId", task.getProblemId());
+        map.put("title", task.getTitle());
+        map.put("description", task.getDescription());
+        map.put("genParams", task.getGenParams());
+        map.put("parameterButtons", task.getParameterButtons());
+        map.put("answer", task.getAnswer());
+        return map;
+    }
+
+    public static ClientTask clientTask(Map json) {
+        Map<String, String> genParams = new LinkedHashMap<String, String>();
+        Object params = json.get("genParams");
+        if (params instanceof Map) {
+            for (Object o : ((Map) params).entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                genParams.put(String.valueOf(entry.getKey()), entry.getValue() == null ? null : entry.getValue().toString());
+            }
+        } else if (params != null) {
+            throw new IllegalArgumentException("genParams must be an object");
+        }
+        List<String> buttons = new ArrayList<String>();
+        Object list = json.get("parameterButtons");
+        if (list instanceof List) {
+            for (Object button : (List) list) {
+                buttons.add(String.valueOf(button));
+            }
+        }
+        ClientTask task = new ClientTaskImpl(getString(json, "title"), getString(json, "description"),
+                genParams, getLong(json, "problemId"), buttons);
+        task.setAnswer(getString(json, "answer"));
+        return task;
+    }
+
+    public static Map getObject(Map json, String key) {
+        Object value = json.get(key);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("object '" + key + "' expected");
+        }
+        return (Map) value;
+    }
+
+    private static String getString(Map json, String key) {
+        Object value = json.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static long getLong(Map json, String key) {
+        Object value = json.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            return Long.parseLong((String) value);
+        }
+        throw new IllegalArgumentException("number '" + key + "' expected");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.spb.ipo.engine.http;
+
+import ru.spb.ipo.engine.rmi.UserChoice;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Подпись параметров условия, выданных /problem, для клиента, конкурса и задачи: /verify
+ * принимает только такие параметры. Ключ создается при запуске сервера, поэтому после
+ * перезапуска задачу нужно получить заново.
+ * <p/>
+ * Подпись покрывает и случайную метку выдачи (nonce), которую знает только получивший задачу.
+ * Идентификатор клиента подписью не подтверждается (/problem выдает задачу любому client),
+ * поэтому замена незавершенной проверки идет по метке, а не по клиенту.
+ */
+class ParamsSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+
+    private final SecureRandom random = new SecureRandom();
+
+    ParamsSigner() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    String newNonce() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    String sign(UserChoice uc, Map params, String nonce) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(message(uc, params, nonce)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    boolean verify(UserChoice uc, Map params, String nonce, String signature) {
+        if (nonce == null || signature == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(uc, params, nonce).getBytes(), signature.getBytes());
+    }
+
+    /**
+     * Значения приводятся к строкам так же, как в JsonProtocol.clientTask(Map).
+     */
+    private static byte[] message(UserChoice uc, Map params, String nonce) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Object o : params.entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            sorted.put(String.valueOf(entry.getKey()), entry.getValue() == null ? null : entry.getValue().toString());
+        }
+        List<Object> message = new ArrayList<Object>();
+        message.add(uc.getClientId());
+        message.add(uc.getContestId());
+        message.add(uc.getProblemId());
+        message.add(sorted);
+        message.add(nonce);
+        try {
+            return Json.write(message).getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.rmi;
+
+import ru.spb.ipo.engine.exception.XmlException;
+import ru.spb.ipo.engine.task.ParametersSandbox;
+import ru.spb.ipo.engine.task.XmlTask;
+import ru.spb.ipo.engine.task.XmlTaskImpl;
+import ru.spb.ipo.engine.utils.MyLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Двоичный индекс задач одного задачника, хранится в файле .index в каталоге задач и отображается в память.
+ * Старый индекс при перестроении читается в кучу, а не отображается: отображенный файл в Windows нельзя заменить.
+ * Для каждого файла задачи записаны время изменения, размер, название, имена параметров условия,
+ * число их наборов и имена параметров верификации. При открытии файлы задач только опрашиваются (stat),
+ * перечитываются лишь новые и изменившиеся, остальные записи копируются из старого индекса.
+ * <p/>
+ * Формат: MAGIC, VERSION, число записей n, n смещений записей от начала файла, записи.
+ * Запись: имя файла, время изменения, размер, название (null - не задано), параметры условия,
+ * число наборов параметров условия, параметры верификации. Строки - длина в байтах и UTF-8.
+ */
+public class ContestIndex {
+
+    public static final String INDEX_FILE = ".index";
+
+    private static final int MAGIC = 0x57544958;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 12;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private ContestIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        size = buffer.getInt(8);
+    }
+
+    /**
+     * Открывает индекс каталога, перестраивая его, если файлы задач изменились.
+     * Если индекс нельзя записать на диск, он строится в памяти.
+     */
+    public static ContestIndex open(File folder) throws IOException {
+        File indexFile = new File(folder, INDEX_FILE);
+        ContestIndex old = null;
+        if (indexFile.isFile()) {
+            try {
+                old = read(indexFile);
+            } catch (IOException e) {
+                MyLogger.getLogger().warning("Can't read task index " + indexFile + ", rebuilding: " + e.getMessage());
+            }
+        }
+
+        String[] names = folder.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.toLowerCase().endsWith(".xml");
+            }
+        });
+        if (names == null) {
+            throw new IOException("Can't list " + folder);
+        }
+        Arrays.sort(names);
+
+        Map<String, Integer> oldEntries = new HashMap<String, Integer>();
+        if (old != null) {
+            try {
+                if (old.isUpToDate(folder, names)) {
+                    ContestIndex mapped = map(indexFile);
+                    return mapped != null ? mapped : old;
+                }
+                for (int i = 0; i < old.size; i++) {
+                    oldEntries.put(old.getFileName(i), i);
+                }
+            } catch (RuntimeException e) {
+                // испорченный индекс строится заново
+                MyLogger.getLogger().warning("Task index " + indexFile + " is broken, rebuilding: " + e);
+                oldEntries.clear();
+            }
+        }
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        int[] offsets = new int[names.length];
+        int headerSize = HEADER + 4 * names.length;
+        for (int i = 0; i < names.length; i++) {
+            offsets[i] = headerSize + out.size();
+            File file = new File(folder, names[i]);
+            Integer oldIndex = oldEntries.get(names[i]);
+            if (oldIndex != null && old.matches(oldIndex, file)) {
+                out.write(old.getEntry(oldIndex));
+            } else {
+                writeEntry(out, file);
+            }
+        }
+        out.flush();
+
+        ByteBuffer result = ByteBuffer.allocate(headerSize + entries.size());
+        result.putInt(MAGIC).putInt(VERSION).putInt(names.length);
+        for (int offset : offsets) {
+            result.putInt(offset);
+        }
+        result.put(entries.toByteArray());
+        result.flip();
+
+        File tmp = new File(folder, INDEX_FILE + ".tmp");
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(result.array());
+            } finally {
+                fos.close();
+            }
+            replace(tmp, indexFile);
+            ContestIndex mapped = map(indexFile);
+            return mapped != null ? mapped : new ContestIndex(result);
+        } catch (IOException e) {
+            tmp.delete();
+            MyLogger.getLogger().warning("Can't write task index " + indexFile + ", using it in memory: " + e.getMessage());
+            return new ContestIndex(result);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getFileName(int index) {
+        ByteBuffer entry = entry(index);
+        return readString(entry);
+    }
+
+    /**
+     * @return null, если у задачи нет названия
+     */
+    public String getTitle(int index) {
+        ByteBuffer entry = entry(index);
+        skipString(entry);
+        entry.position(entry.position() + 16);
+        return readString(entry);
+    }
+
+    public List<String> getDescriptionParams(int index) {
+        ByteBuffer entry = afterTitle(index);
+        return readStrings(entry);
+    }
+
+    /**
+     * Число наборов параметров условия, 0 - параметров нет.
+     */
+    public int getDescriptionCardinality(int index) {
+        ByteBuffer entry = afterTitle(index);
+        skipStrings(entry);
+        return entry.getInt();
+    }
+
+    public List<String> getVerifierParams(int index) {
+        ByteBuffer entry = afterTitle(index);
+        skipStrings(entry);
+        entry.getInt();
+        return readStrings(entry);
+    }
+
+    /**
+     * Заменяет индекс новым одной операцией, чтобы не было момента, когда индекса нет.
+     */
+    private static void replace(File tmp, File indexFile) throws IOException {
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static ContestIndex read(File indexFile) throws IOException {
+        return check(ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath())));
+    }
+
+    private static ContestIndex check(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        return new ContestIndex(buffer);
+    }
+
+    private static ContestIndex map(File indexFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return check(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private boolean isUpToDate(File folder, String[] names) {
+        if (names.length != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!names[i].equals(getFileName(i)) || !matches(i, new File(folder, names[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int index, File file) {
+        ByteBuffer entry = entry(index);
+        skipString(entry);
+        return entry.getLong() == file.lastModified() && entry.getLong() == file.length();
+    }
+
+    private byte[] getEntry(int index) {
+        ByteBuffer entry = entry(index);
+        int end = index + 1 < size ? buffer.getInt(HEADER + 4 * (index + 1)) : buffer.limit();
+        byte[] bytes = new byte[end - entry.position()];
+        entry.get(bytes);
+        return bytes;
+    }
+
+    private ByteBuffer entry(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Task index " + index + ", size " + size);
+        }
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(buffer.getInt(HEADER + 4 * index));
+        return entry;
+    }
+
+    private ByteBuffer afterTitle(int index) {
+        ByteBuffer entry = entry(index);
+        skipString(entry);
+        entry.position(entry.position() + 16);
+        skipString(entry);
+        return entry;
+    }
+
+    private static void writeEntry(DataOutputStream out, File file) throws IOException {
+        long modified = file.lastModified();
+        long length = file.length();
+        String title = null;
+        List<String> descriptionParams = Collections.emptyList();
+        int cardinality = 0;
+        List<String> verifierParams = Collections.emptyList();
+        try {
+            XmlTask task = new XmlTaskImpl(file.getPath());
+            title = task.getTitle();
+            ParametersSandbox description = new ParametersSandbox(task.getDesriptionParams());
+            descriptionParams = description.getParameterNames();
+            cardinality = description.getSize();
+            verifierParams = new ParametersSandbox(task.getVerifierParams()).getParameterNames();
+        } catch (XmlException e) {
+            MyLogger.getLogger().warning("Can't index task " + file + ": " + e.getMessage());
+        }
+        writeString(out, file.getName());
+        out.writeLong(modified);
+        out.writeLong(length);
+        writeString(out, title);
+        writeStrings(out, descriptionParams);
+        out.writeInt(cardinality);
+        writeStrings(out, verifierParams);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readString(ByteBuffer entry) {
+        int length = entry.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        entry.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void skipString(ByteBuffer entry) {
+        int length = entry.getInt();
+        if (length > 0) {
+            entry.position(entry.position() + length);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer entry) {
+        int count = entry.getInt();
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(entry));
+        }
+        return strings;
+    }
+
+    private static void skipStrings(ByteBuffer entry) {
+        int count = entry.getInt();
+        for (int i = 0; i < count; i++) {
+            skipString(entry);
+        }
+    }
+}
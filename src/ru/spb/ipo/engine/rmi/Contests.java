@@ -19,13 +19,13 @@
 
 package ru.spb.ipo.engine.rmi;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.task.TaskReader;
 import ru.spb.ipo.engine.utils.FileAccessUtil;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: Michael Bogdanov
@@ -37,20 +37,28 @@ public class Contests {
     private String[] files;
 
     public Contests() throws TaskDeserializationException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        Document doc = null;
+        Node root = null;
         try {
-            DocumentBuilder parser = factory.newDocumentBuilder();
-            doc = parser.parse(FileAccessUtil.getInputStream("tests.xml"));
+            root = TaskReader.read(FileAccessUtil.getInputStream("tests.xml"), "tests.xml");
         } catch (Exception e) {
             throw new TaskDeserializationException("Ошибка при разборе файла с задачниками: tests.xml: \n" + e.getMessage());
         }
-        NodeList nl = doc.getElementsByTagName("test");
-        titles = new String[nl.getLength()];
-        files = new String[nl.getLength()];
-        for (int i = 0; i < nl.getLength(); i++) {
-            titles[i] = nl.item(i).getAttributes().getNamedItem("title").getNodeValue();
-            files[i] = nl.item(i).getAttributes().getNamedItem("folder").getNodeValue().replaceAll("\\\\", "/");
+        List<Node> nl = new ArrayList<Node>();
+        collectTests(root, nl);
+        titles = new String[nl.size()];
+        files = new String[nl.size()];
+        for (int i = 0; i < nl.size(); i++) {
+            titles[i] = nl.get(i).getAttrIfExists("title", null);
+            files[i] = nl.get(i).getAttrIfExists("folder", null).replace('\\', '/');
+        }
+    }
+
+    private static void collectTests(Node node, List<Node> tests) {
+        if ("test".equals(node.getNodeName())) {
+            tests.add(node);
+        }
+        for (Node child : node.getChilds(null)) {
+            collectTests(child, tests);
         }
     }
 
@@ -20,18 +20,15 @@
 package ru.spb.ipo.engine.rmi;
 
 import org.omg.CORBA.SystemException;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.exception.XmlException;
 import ru.spb.ipo.engine.task.JavaTaskFactory;
 import ru.spb.ipo.engine.task.ServerTask;
 import ru.spb.ipo.engine.task.TaskFactory;
+import ru.spb.ipo.engine.task.TaskReader;
 import ru.spb.ipo.engine.utils.FileAccessUtil;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -65,6 +62,10 @@ public class LocalContestProblemAccessor implements ContestProblemAccessor {
 
     public ProblemProxy[] getProblemList(long contestId) throws TaskDeserializationException, IOException {
         String folder = contests.getFile((int) contestId);
+        File localFolder = FileAccessUtil.getLocalFile(folder);
+        if (localFolder != null && localFolder.isDirectory()) {
+            return getIndexedProblemList(contestId, ContestIndex.open(localFolder));
+        }
         String[] taskFiles = null;
         taskFiles = FileAccessUtil.list(folder, ".xml");
         ProblemProxy[] fileProxies = new ProblemProxy[taskFiles.length];
@@ -80,30 +81,44 @@ public class LocalContestProblemAccessor implements ContestProblemAccessor {
         }
 
         for (int i = 0; i < taskFiles.length; i++) {
-            final int index = i;
+            String file = getFullFileName(contestId, i);
             try {
-                SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-                parser.parse(FileAccessUtil.getInputStream(getFullFileName(contestId, i)), new DefaultHandler() {
-                    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-                        if ("task".equals(qName)) {
-                            proxies[index].setTitle(attributes.getValue("title"));
-                        }
-                    }
-                });
-            } catch (SAXException e) {
+                // читается только начало файла
+                String title = TaskReader.readTitle(FileAccessUtil.getInputStream(file), file);
+                if (title != null) {
+                    proxies[i].setTitle(title);
+                }
+            } catch (XmlException e) {
                 e.printStackTrace();
-            } catch (ParserConfigurationException e) {
-                e.printStackTrace();  //TODO:
             }
         }
 
+        sortByTitle(proxies);
+        return proxies;
+    }
+
+    /**
+     * Список задач из индекса каталога: файлы задач заново не читаются, если они не менялись.
+     */
+    private ProblemProxy[] getIndexedProblemList(long contestId, ContestIndex index) {
+        ProblemProxy[] fileProxies = new ProblemProxy[index.size()];
+        ProblemProxy[] proxies = new ProblemProxy[index.size()];
+        for (int i = 0; i < fileProxies.length; i++) {
+            fileProxies[i] = new ProblemProxy(index.getFileName(i), i);
+            String title = index.getTitle(i);
+            proxies[i] = new ProblemProxy(title != null ? title : "Название задачи не задано", i);
+        }
+        problemsperContest.put(contestId, fileProxies);
+        sortByTitle(proxies);
+        return proxies;
+    }
+
+    private static void sortByTitle(ProblemProxy[] proxies) {
         Arrays.sort(proxies, new Comparator<ProblemProxy>() {
             public int compare(ProblemProxy o1, ProblemProxy o2) {
                 return o1.getTitle().compareTo(o2.getTitle());
             }
         });
-
-        return proxies;
     }
 
     public ServerTask getProblem(long contestId, long problemId) throws TaskDeserializationException, SystemException {
@@ -24,6 +24,7 @@ import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.exception.UserAnswerParseException;
 import ru.spb.ipo.engine.task.ClientTask;
+import ru.spb.ipo.engine.verifiers.ProgressListener;
 
 /**
  * User: Michael Bogdanov
@@ -37,6 +38,20 @@ public interface Server {
 
     public boolean verify(UserChoice ucerChoice, ClientTask ct) throws TaskDeserializationException, SystemException, UserAnswerParseException;
 
+    /**
+     * Проверка в фоне. Новая проверка того же клиента отменяет его незавершенную предыдущую.
+     * Если очередь проверок заполнена, результат завершается RejectedExecutionException.
+     *
+     * @param listener получает ход проверки, может быть null
+     */
+    public VerifyFuture verifyAsync(UserChoice ucerChoice, ClientTask ct, ProgressListener listener);
+
+    /**
+     * То же, но заменяется незавершенная проверка с тем же ключом replaceKey, а не того же клиента;
+     * клиент по-прежнему определяет очередь. При replaceKey == null проверки не заменяют друг друга.
+     */
+    public VerifyFuture verifyAsync(UserChoice ucerChoice, ClientTask ct, ProgressListener listener, String replaceKey);
+
     public ClientTask getProblem(UserChoice ucerChoice) throws SystemException, TaskDeserializationException;
 
     public UserChoice getUC(UserChoice uc, long contestId) throws SystemException;
@@ -20,10 +20,18 @@
 package ru.spb.ipo.engine.rmi;
 
 import ru.spb.ipo.engine.ProblemsForContest;
+import ru.spb.ipo.engine.VerifyScheduler;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.exception.UserAnswerParseException;
 import ru.spb.ipo.engine.task.ClientTask;
+import ru.spb.ipo.engine.utils.SystemProperties;
+import ru.spb.ipo.engine.verifiers.ProgressListener;
+import ru.spb.ipo.engine.verifiers.VerifyControl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * User: Michael Bogdanov
@@ -33,6 +41,9 @@ public class ServerImpl /*extends UnicastRemoteObject*/ implements Server {
 
     private ContestProblemAccessor accessor;
 
+    // незавершенные фоновые проверки по ключу замены (обычно clientId)
+    private final ConcurrentMap<String, VerifyFuture> inFlight = new ConcurrentHashMap<String, VerifyFuture>();
+
     public ServerImpl() throws TaskDeserializationException, SystemException {
         //super();
         accessor = new LocalContestProblemAccessor();
@@ -54,6 +65,73 @@ public class ServerImpl /*extends UnicastRemoteObject*/ implements Server {
         return ProblemsForContest.getProblemsPerContest(uc.getContestId(), accessor).getProblem((int) uc.getProblemId()).verify(ct);
     }
 
+    public VerifyFuture verifyAsync(UserChoice uc, ClientTask ct, ProgressListener listener) {
+        return verifyAsync(uc, ct, listener, uc.getClientId());
+    }
+
+    public VerifyFuture verifyAsync(final UserChoice uc, final ClientTask ct, ProgressListener listener, final String replaceKey) {
+        final VerifyFuture future = new VerifyFuture(new VerifyControl(listener, SystemProperties.getInt(SystemProperties.VERIFY_DEADLINE)));
+        String clientId = uc.getClientId();
+        if (replaceKey != null) {
+            VerifyFuture previous = inFlight.put(replaceKey, future);
+            if (previous != null) {
+                previous.cancel(true);
+            }
+        }
+        try {
+            VerifyScheduler.instance.submit(clientId, new VerifyScheduler.Task() {
+                public long estimateCost() {
+                    // замененная проверка все равно сразу завершится
+                    return future.isDone() ? 0 : ServerImpl.this.estimateCost(uc, ct);
+                }
+
+                public void fail(Throwable e) {
+                    ServerImpl.this.fail(replaceKey, future, e);
+                }
+
+                public void run() {
+                    VerifyControl.attach(future.getControl());
+                    try {
+                        future.getControl().checkpoint();
+                        future.complete(verify(uc, ct));
+                    } catch (Throwable e) {
+                        future.fail(e);
+                    } finally {
+                        VerifyControl.detach();
+                        if (replaceKey != null) {
+                            inFlight.remove(replaceKey, future);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(replaceKey, future, e);
+        }
+        return future;
+    }
+
+    private void fail(String replaceKey, VerifyFuture future, Throwable e) {
+        future.fail(e);
+        if (replaceKey != null) {
+            inFlight.remove(replaceKey, future);
+        }
+    }
+
+    /**
+     * Ошибки оценки не мешают постановке в очередь: такая проверка быстро завершится той же ошибкой.
+     */
+    private long estimateCost(UserChoice uc, ClientTask ct) {
+        try {
+            return ProblemsForContest.getProblemsPerContest(uc.getContestId(), accessor).getProblem((int) uc.getProblemId()).estimateCost(ct);
+        } catch (TaskDeserializationException e) {
+            return 0;
+        } catch (SystemException e) {
+            return 0;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
     public ClientTask getProblem(UserChoice uc) throws SystemException, TaskDeserializationException {
         return ProblemsForContest.getProblemsPerContest(uc.getContestId(), accessor).getProblem((int) uc.getProblemId()).getClientTask();
     }
@@ -0,0 +1,60 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.rmi;
+
+import ru.spb.ipo.engine.verifiers.VerifyControl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Результат фоновой проверки. Отмена прерывает перебор верификатора, а не только результат;
+ * при истечении срока проверка завершается с TimeoutException.
+ */
+public class VerifyFuture extends CompletableFuture<Boolean> {
+
+    private final VerifyControl control;
+
+    public VerifyFuture(VerifyControl control) {
+        this.control = control;
+    }
+
+    public VerifyControl getControl() {
+        return control;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        control.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Завершает результат по исключению проверки; прерывание по сроку становится TimeoutException.
+     */
+    void fail(Throwable e) {
+        if (e instanceof CancellationException && control.isExpired()) {
+            // ForkJoinPool пробрасывает копию исключения без сообщения
+            completeExceptionally(new TimeoutException("Verification deadline exceeded"));
+        } else {
+            completeExceptionally(e);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package ru.spb.ipo.engine.sets;
 
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntTupleElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
@@ -155,8 +156,39 @@ public class CombinationSet extends Set {
     }
 
     public Element getElement(long index) {
-        throw new UnsupportedOperationException("Operation getElement(long index) isn't supported in CombinationSet class");
+        int[] combination = new int[clength];
+        MathOperations.unrankCombination(slength, clength, index - 1, combination);
+        return comb2Element(combination);
+    }
 
+    public long rank(Element element) {
+        if (!(element instanceof ContainerElement) || element.getLength() != clength) {
+            return -1;
+        }
+        int[] combination = new int[clength];
+        for (int i = 0; i < clength; i++) {
+            long r = set.rank(element.getElementAt(i + 1));
+            if (r < 0 || (i > 0 && r <= combination[i - 1])) {
+                return -1;
+            }
+            combination[i] = (int) r;
+        }
+        return MathOperations.rankCombination(slength, combination) + 1;
+    }
+
+    private Element comb2Element(int[] combination) {
+        Element[] elms = new Element[clength];
+        for (int i = 0; i < clength; i++) {
+            elms[i] = set.getElement(combination[i]);
+        }
+        return new ContainerElement(elms);
+    }
+
+    private Element comb2Tuple(int[] combination, IntTupleElement tuple) {
+        for (int i = 0; i < clength; i++) {
+            tuple.setIntAt(i + 1, set.getIntValue(combination[i]));
+        }
+        return tuple;
     }
 
     public Object clone() {
@@ -167,24 +199,41 @@ public class CombinationSet extends Set {
         return clength;
     }
 
+    public boolean isRandomAccess() {
+        return set.isRandomAccess();
+    }
+
     public SetIterator iterator() {
+        return iterator(1, size);
+    }
+
+    public SetIterator iterator(long first, long last) {
+        return iterator(first, last, null);
+    }
+
+    /**
+     * Если элементы исходного множества - целые числа, сочетания записываются в один IntTupleElement.
+     */
+    public SetIterator cursor(long first, long last) {
+        return iterator(first, last, set.isIntValued() ? new IntTupleElement(clength) : null);
+    }
+
+    private SetIterator iterator(final long first, final long last, final IntTupleElement tuple) {
 
         return new SetIterator() {
-            private long index = 0;
+            private long index = first;
 
             private int[] combination = new int[clength];
 
             public Element getCurrent() {
-                return comb2Element();
+                return comb2Element(combination);
             }
 
             public Element next() {
                 if (!hasNext()) return null;
 
-                if (index == 0) {
-                    for (int i = 0; i < clength; i++) {
-                        combination[i] = i + 1;
-                    }
+                if (index == first) {
+                    MathOperations.unrankCombination(slength, clength, first - 1, combination);
                 } else {
                     boolean stop = false;
                     int i = clength - 1;
@@ -199,25 +248,17 @@ public class CombinationSet extends Set {
                     for (int j = i + 1; j < clength; j++)
                         combination[j] = combination[i] + j - i;
                 }
-                Element res = comb2Element();
+                Element res = tuple == null ? comb2Element(combination) : comb2Tuple(combination, tuple);
                 index++;
                 return res;
             }
 
-            private Element comb2Element() {
-                Element[] elms = new Element[clength];
-                for (int i = 0; i < clength; i++) {
-                    elms[i] = set.getElement(combination[i]);
-                }
-                return new ContainerElement(elms);
-            }
-
             public void reset() {
-                index = 0;
+                index = first;
             }
 
             public boolean hasNext() {
-                return index < size;
+                return index <= last;
             }
 
         };
@@ -21,6 +21,7 @@ package ru.spb.ipo.engine.sets;
 
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntTupleElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
@@ -87,10 +88,151 @@ public class DecartSet extends Set {
     }
 
 
+    public long rank(Element element) {
+        if (!(element instanceof ContainerElement) || element.getLength() != setsNumber) {
+            return -1;
+        }
+        long rank = 0;
+        for (int i = 0; i < setsNumber; i++) {
+            long r = sets[i].rank(element.getElementAt(i + 1));
+            if (r < 0) {
+                return -1;
+            }
+            rank = rank * sets[i].getSize() + r - 1;
+        }
+        return rank + 1;
+    }
+
     public int getLength() {
         return sets.length;
     }
 
+    /**
+     * Возвращает множества-сомножители.
+     */
+    public Set[] getSets() {
+        return sets;
+    }
+
+    public boolean isRandomAccess() {
+        for (int i = 0; i < setsNumber; i++) {
+            if (!sets[i].isRandomAccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Раскладывает номер элемента на номера его компонент (все номера начинаются с 1).
+     */
+    private void decode(long index, long[] position) {
+        long msize = size;
+        for (int i = 0; i < setsNumber; i++) {
+            msize = msize / sets[i].getSize();
+            position[i] = (index - 1) / msize + 1;
+            index = (index - 1) % msize + 1;
+        }
+    }
+
+    public SetIterator iterator(final long first, final long last) {
+        return new SetIterator() {
+
+            private long[] position = new long[setsNumber];
+            private Element[] previous;
+            private long index = first;
+
+            public boolean hasNext() {
+                return index <= last;
+            }
+
+            public Element next() {
+                if (!hasNext()) return null;
+                Element[] elms = new Element[setsNumber];
+                if (previous == null) {
+                    decode(first, position);
+                    for (int i = 0; i < setsNumber; i++) {
+                        elms[i] = sets[i].getElement(position[i]);
+                    }
+                } else {
+                    int i = setsNumber - 1;
+                    while (position[i] == sets[i].getSize()) {
+                        position[i] = 1;
+                        elms[i] = sets[i].getElement(1);
+                        i--;
+                    }
+                    position[i]++;
+                    elms[i] = sets[i].getElement(position[i]);
+                    for (int j = 0; j < i; j++) {
+                        elms[j] = previous[j];
+                    }
+                }
+                previous = elms;
+                index++;
+                return new ContainerElement(elms);
+            }
+
+            public void reset() {
+                index = first;
+                previous = null;
+            }
+        };
+    }
+
+    private boolean isIntTuple() {
+        for (int i = 0; i < setsNumber; i++) {
+            if (!sets[i].isIntValued()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Если все множества - целочисленные, кортежи записываются в один IntTupleElement,
+     * при переходе к следующему элементу меняются только изменившиеся компоненты.
+     */
+    public SetIterator cursor(final long first, final long last) {
+        if (!isIntTuple()) {
+            return iterator(first, last);
+        }
+        return new SetIterator() {
+
+            private long[] position = new long[setsNumber];
+            private IntTupleElement tuple = new IntTupleElement(setsNumber);
+            private long index = first;
+
+            public boolean hasNext() {
+                return index <= last;
+            }
+
+            public Element next() {
+                if (!hasNext()) return null;
+                if (index == first) {
+                    decode(first, position);
+                    for (int i = 0; i < setsNumber; i++) {
+                        tuple.setIntAt(i + 1, sets[i].getIntValue(position[i]));
+                    }
+                } else {
+                    int i = setsNumber - 1;
+                    while (position[i] == sets[i].getSize()) {
+                        position[i] = 1;
+                        tuple.setIntAt(i + 1, sets[i].getIntValue(1));
+                        i--;
+                    }
+                    position[i]++;
+                    tuple.setIntAt(i + 1, sets[i].getIntValue(position[i]));
+                }
+                index++;
+                return tuple;
+            }
+
+            public void reset() {
+                index = first;
+            }
+        };
+    }
+
     public SetIterator iterator() {
         final SetIterator[] iterators = new SetIterator[getLength()];
         for (int i = 0; i < iterators.length; i++) {
@@ -19,18 +19,26 @@
 
 package ru.spb.ipo.engine.sets;
 
+import ru.spb.ipo.engine.elements.BridgeElement;
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.verifiers.Verifier;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 public class DistinctSet extends Set {
 
-    private ArrayList<ContainerElement> unique;
+    private Set source;
+    private SubstitutionSet perm;
+
+    // строится при первом обращении, в режиме подсчета орбит не нужен
+    private volatile List<ContainerElement> unique;
     private int len;
 
     public DistinctSet() {
@@ -45,7 +53,7 @@ public class DistinctSet extends Set {
         } else if (lsets.size() != 1)
             throw new TaskDeserializationException("DistinctSet должен иметь одно или два вложенных множества");
 
-        Set source = generateSet(lsets.get(0));
+        source = generateSet(lsets.get(0));
         len = source.getLength();
         if (lsets.size() == 2) {
             String tn = lsets.get(1).getAttr("dim");
@@ -53,30 +61,99 @@ public class DistinctSet extends Set {
                 throw new TaskDeserializationException("DistinctSet: длина кортежей 1-го множества должна совпадать с dim");
         }
 
-        SubstitutionSet perm;
         if (lsets.size() == 2)
             perm = (SubstitutionSet) generateSet(lsets.get(1));
         else
             perm = new SubstitutionSet(len);
+    }
+
+    public Set getSource() {
+        return source;
+    }
 
-        unique = new ArrayList<ContainerElement>();
+    /**
+     * Группа перестановок, кортежи из одной орбиты считаются одинаковыми.
+     */
+    public SubstitutionSet getGroup() {
+        return perm;
+    }
+
+    private List<ContainerElement> getUnique() {
+        List<ContainerElement> list = unique;
+        if (list == null) {
+            synchronized (this) {
+                list = unique;
+                if (list == null) {
+                    list = collectUnique();
+                    unique = list;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * В каждой орбите остается первый встреченный кортеж, орбиты сравниваются по канонической форме.
+     * Перебор сообщает о ходе проверки, поэтому отмена и срок проверки прерывают и его.
+     */
+    private List<ContainerElement> collectUnique() {
+        List<ContainerElement> list = new ArrayList<ContainerElement>();
+        HashSet<OrbitKey> orbits = new HashSet<OrbitKey>();
+        long size = source.getSize();
+        long iteration = 0;
         SetIterator it = source.iterator();
         while (it.hasNext()) {
             ContainerElement current = (ContainerElement) it.next();
-            boolean found = false;
-            for (int i = 0; i < unique.size() && !found; i++) {
-                if (perm.canMake(current, unique.get(i))) {
-                    found = true;
+            if (orbits.add(new OrbitKey(perm.canonize(current))))
+                list.add((ContainerElement) (current).clone());
+            Verifier.setCompleted((float) iteration++ / size);
+        }
+        return list;
+    }
+
+    /**
+     * Ключ для хэш-множества: Element сравнивается через compareTo, а hashCode у кортежей не определен.
+     */
+    private static class OrbitKey {
+
+        private final ContainerElement canonical;
+
+        private final int hash;
+
+        OrbitKey(ContainerElement canonical) {
+            this.canonical = canonical;
+            hash = hash(canonical);
+        }
+
+        private static int hash(Element e) {
+            while (e instanceof BridgeElement) {
+                e = ((BridgeElement) e).getOriginal();
+            }
+            if (e instanceof ContainerElement) {
+                int h = e.getLength();
+                for (int i = 1; i <= e.getLength(); i++) {
+                    h = 31 * h + hash(e.getElementAt(i));
                 }
+                return h;
+            }
+            if (e instanceof IntElement) {
+                return e.getInt();
             }
-            if (!found)
-                unique.add((ContainerElement) (current).clone());
+            return e.toString().hashCode();
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof OrbitKey && canonical.equals(((OrbitKey) o).canonical);
+        }
+
+        public int hashCode() {
+            return hash;
         }
     }
 
 
     public Element getElement(long index) {
-        return unique.get((int) index - 1);
+        return getUnique().get((int) index - 1);
     }
 
     public int getLength() {
@@ -84,7 +161,7 @@ public class DistinctSet extends Set {
     }
 
     public long getSize() {
-        return unique.size();
+        return getUnique().size();
     }
 
 
@@ -93,7 +170,7 @@ public class DistinctSet extends Set {
             int index = 0;
 
             public boolean hasNext() {
-                return index < unique.size();
+                return index < getUnique().size();
             }
 
             public Element next() {
@@ -20,6 +20,7 @@
 package ru.spb.ipo.engine.sets;
 
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.functions.AbstractFunction;
@@ -67,6 +68,24 @@ public class EnumerationSet extends Set {
         return (Element) list.get((int) index - 1);
     }
 
+    public boolean isIntValued() {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getClass() != IntElement.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getIntValue(long index) {
+        return ((Element) list.get((int) index - 1)).getInt();
+    }
+
+    public long rank(Element element) {
+        int index = list.indexOf(element);
+        return index < 0 ? -1 : index + 1;
+    }
+
     public int getLength() {
         return 1;
     }
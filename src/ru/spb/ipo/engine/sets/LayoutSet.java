@@ -21,11 +21,14 @@ package ru.spb.ipo.engine.sets;
 
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntTupleElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.utils.MathOperations;
 
+import java.util.Arrays;
+
 public class LayoutSet extends Set {
 
     private int llength;
@@ -116,14 +119,66 @@ public class LayoutSet extends Set {
         return size;  //To change body of implemented methods use File | Settings | File Templates.
     }
 
+    /**
+     * Элементы идут блоками по tlength: номер сочетания * llength! + номер перестановки внутри сочетания.
+     */
     public Element getElement(long index) {
-        throw new UnsupportedOperationException("Operation getElement(long index) isn't supported in CombinationSet class");
+        int[] combination = new int[llength];
+        int[] layout = new int[llength];
+        MathOperations.unrankCombination(slength, llength, (index - 1) / tlength, combination);
+        MathOperations.unrankPermutation(llength, (index - 1) % tlength, layout);
+        return layout2Element(combination, layout);
+    }
+
+    public long rank(Element element) {
+        if (!(element instanceof ContainerElement) || element.getLength() != llength) {
+            return -1;
+        }
+        int[] ranks = new int[llength];
+        for (int i = 0; i < llength; i++) {
+            long r = set.rank(element.getElementAt(i + 1));
+            if (r < 0) {
+                return -1;
+            }
+            ranks[i] = (int) r;
+        }
+        int[] combination = ranks.clone();
+        Arrays.sort(combination);
+        for (int i = 1; i < llength; i++) {
+            if (combination[i] == combination[i - 1]) {
+                return -1;
+            }
+        }
+        int[] layout = new int[llength];
+        for (int i = 0; i < llength; i++) {
+            layout[i] = Arrays.binarySearch(combination, ranks[i]) + 1;
+        }
+        return MathOperations.rankCombination(slength, combination) * tlength + MathOperations.rankPermutation(layout) + 1;
+    }
+
+    private Element layout2Element(int[] combination, int[] layout) {
+        Element[] elms = new Element[llength];
+        for (int i = 0; i < llength; i++) {
+            elms[i] = set.getElement(combination[layout[i] - 1]);
+        }
+        return new ContainerElement(elms);
+    }
+
+    private Element layout2Tuple(int[] combination, int[] layout, IntTupleElement tuple) {
+        for (int i = 0; i < llength; i++) {
+            tuple.setIntAt(i + 1, set.getIntValue(combination[layout[i] - 1]));
+        }
+        return tuple;
     }
 
     public int getLength() {
         return llength;
     }
 
+    public boolean isRandomAccess() {
+        return set.isRandomAccess();
+    }
+
 //    private void newCombination() {
 //        if (index == 0) {
 //            for (int i = 0; i < llength; i++) {
@@ -155,21 +210,39 @@ public class LayoutSet extends Set {
 
 
     public SetIterator iterator() {
+        return iterator(1, size);
+    }
+
+    public SetIterator iterator(long first, long last) {
+        return iterator(first, last, null);
+    }
+
+    /**
+     * Если элементы исходного множества - целые числа, размещения записываются в один IntTupleElement.
+     */
+    public SetIterator cursor(long first, long last) {
+        return iterator(first, last, set.isIntValued() ? new IntTupleElement(llength) : null);
+    }
+
+    private SetIterator iterator(final long first, final long last, final IntTupleElement tuple) {
         return new SetIterator() {
 
             private int[] layout = new int[llength];
             private int[] combination = new int[llength];
 
-            private long index;
+            private long index = first - 1;
 
             public boolean hasNext() {
-                return index < size;
+                return index < last;
             }
 
             public Element next() {
                 if (!hasNext()) return null;
 
-                if ((index == 0) || (index % tlength == 0)) {
+                if (index == first - 1) {
+                    MathOperations.unrankCombination(slength, llength, index / tlength, combination);
+                    MathOperations.unrankPermutation(llength, index % tlength, layout);
+                } else if (index % tlength == 0) {
                     for (int j = 1; j <= llength; j++) layout[j - 1] = j;
                     newCombination();
                 } else {
@@ -195,39 +268,24 @@ public class LayoutSet extends Set {
                 }
 
                 index++;
-                return layout2Element();
+                return tuple == null ? layout2Element(combination, layout) : layout2Tuple(combination, layout, tuple);
             }
 
             public void reset() {
-                index = 0;
-            }
-
-            private Element layout2Element() {
-                Element[] elms = new Element[llength];
-                for (int i = 0; i < llength; i++) {
-                    elms[i] = set.getElement(combination[layout[i] - 1]);
-                }
-                return new ContainerElement(elms);
+                index = first - 1;
             }
 
             private void newCombination() {
-                if (index == 0) {
-                    for (int i = 0; i < llength; i++) {
-                        combination[i] = i + 1;
-                    }
-                } else {
-                    boolean f = true;
-                    int i = llength - 1;
-                    while (f && i >= 0) {
-                        if (combination[i] < slength - (llength - 1 - i)) {
-                            combination[i]++;
-                            f = false;
-                        } else i--;
-                    }
-                    for (int j = i + 1; j < llength; j++)
-                        combination[j] = combination[i] + j - i;
+                boolean f = true;
+                int i = llength - 1;
+                while (f && i >= 0) {
+                    if (combination[i] < slength - (llength - 1 - i)) {
+                        combination[i]++;
+                        f = false;
+                    } else i--;
                 }
-
+                for (int j = i + 1; j < llength; j++)
+                    combination[j] = combination[i] + j - i;
             }
 
         };
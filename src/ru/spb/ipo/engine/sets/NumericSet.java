@@ -21,6 +21,7 @@ package ru.spb.ipo.engine.sets;
 
 
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.FractionalElement;
 import ru.spb.ipo.engine.elements.IntElement;
 import ru.spb.ipo.engine.exception.XmlException;
 import ru.spb.ipo.engine.task.Node;
@@ -84,6 +85,25 @@ public class NumericSet extends Set {
         return new IntElement((int) (first + (index - 1) % size));
     }
 
+    public int getIntValue(long index) {
+        return (int) (first + (index - 1) % size);
+    }
+
+    public boolean isIntValued() {
+        return true;
+    }
+
+    public long rank(Element element) {
+        if (!(element instanceof IntElement) || element instanceof FractionalElement) {
+            return -1;
+        }
+        int value = element.getInt();
+        if (value < first || value > last) {
+            return -1;
+        }
+        return value - first + 1;
+    }
+
 
     public boolean hasNext() {
         if (beforeFirst && (first <= last)) return true;
@@ -155,4 +175,27 @@ public class NumericSet extends Set {
             }
         };
     }
+
+    public SetIterator cursor(final long from, final long to) {
+        return new SetIterator() {
+
+            private final IntElement element = new IntElement(0);
+
+            private long index = from;
+
+            public boolean hasNext() {
+                return index <= to;
+            }
+
+            public Element next() {
+                if (!hasNext()) return null;
+                element.setInt(getIntValue(index++));
+                return element;
+            }
+
+            public void reset() {
+                index = from;
+            }
+        };
+    }
 }
@@ -41,7 +41,10 @@ public class PermutationWithRepetitionSet extends Set {
 
     List<Element> listOfElements;
     private long size;
-    private Map<Element, Integer> elements;
+
+    // различные элементы исходного множества по возрастанию и число их повторений
+    private Element[] values;
+    private int[] counts;
 
     public PermutationWithRepetitionSet() {
     }
@@ -56,28 +59,32 @@ public class PermutationWithRepetitionSet extends Set {
     }
 
     private void checkDublicates(Set source) {
-        elements = new HashMap<Element, Integer>();
         listOfElements = new ArrayList();
         SetIterator it = source.iterator();
         while (it.hasNext()) {
             Element el = (Element) it.next().clone(); ///unclone
             listOfElements.add(el);
-            Integer count = elements.get(el);
-            if (count == null) {
-                count = 1;
+        }
+        Collections.sort(listOfElements);
+
+        List<Element> distinct = new ArrayList<Element>();
+        List<Integer> repeats = new ArrayList<Integer>();
+        for (Element el : listOfElements) {
+            int last = distinct.size() - 1;
+            if (last >= 0 && distinct.get(last).compareTo(el) == 0) {
+                repeats.set(last, repeats.get(last) + 1);
             } else {
-                count++;
+                distinct.add(el);
+                repeats.add(1);
             }
-            elements.put(el, count);
         }
-        Collections.sort(listOfElements);
-        Collection<Integer> values = elements.values();
-        BigInteger totalSize = MathOperations.layout(llength, llength);
-        for (Iterator<Integer> integerIterator = values.iterator(); integerIterator.hasNext(); ) {
-            Integer count = integerIterator.next();
-            totalSize = totalSize.divide(MathOperations.factorial(count));
+        values = distinct.toArray(new Element[distinct.size()]);
+        counts = new int[repeats.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = repeats.get(i);
         }
-        size = tlength = totalSize.longValue();
+        // пустое множество дает пустой перебор (factorial(0) = 0)
+        size = tlength = llength == 0 ? 0 : MathOperations.multinomial(counts).longValue();
     }
 
 
@@ -96,8 +103,78 @@ public class PermutationWithRepetitionSet extends Set {
         return size;  //To change body of implemented methods use File | Settings | File Templates.
     }
 
+    /**
+     * Перестановки с повторениями идут в лексикографическом порядке, номер раскладывается
+     * по позициям: на каждой позиции пропускаются все перестановки, начинающиеся с меньших элементов.
+     */
     public Element getElement(long index) {
-        throw new UnsupportedOperationException("Operation getElement(long index) isn't supported in CombinationSet class");
+        int[] permutation = new int[llength];
+        unrank(index - 1, permutation);
+        return permutation2Element(permutation);
+    }
+
+    public long rank(Element element) {
+        if (!(element instanceof ContainerElement) || element.getLength() != llength) {
+            return -1;
+        }
+        int[] left = counts.clone();
+        long total = size;
+        long rank = 0;
+        for (int pos = 0; pos < llength; pos++) {
+            int value = Arrays.binarySearch(values, element.getElementAt(pos + 1));
+            if (value < 0 || left[value] == 0) {
+                return -1;
+            }
+            int rest = llength - pos;
+            for (int j = 0; j < value; j++) {
+                if (left[j] != 0) {
+                    rank += share(total, left[j], rest);
+                }
+            }
+            total = share(total, left[value], rest);
+            left[value]--;
+        }
+        return rank + 1;
+    }
+
+    private void unrank(long rank, int[] permutation) {
+        int[] left = counts.clone();
+        long total = size;
+        for (int pos = 0; pos < llength; pos++) {
+            int rest = llength - pos;
+            for (int j = 0; j < left.length; j++) {
+                if (left[j] == 0) {
+                    continue;
+                }
+                long count = share(total, left[j], rest);
+                if (rank < count) {
+                    permutation[pos] = j;
+                    total = count;
+                    left[j]--;
+                    break;
+                }
+                rank -= count;
+            }
+        }
+    }
+
+    /**
+     * Число перестановок, начинающихся с элемента кратности left, среди total перестановок
+     * rest оставшихся элементов: total * left / rest, деление нацело.
+     */
+    private static long share(long total, int left, int rest) {
+        if (total <= Long.MAX_VALUE / left) {
+            return total * left / rest;
+        }
+        return BigInteger.valueOf(total).multiply(BigInteger.valueOf(left)).divide(BigInteger.valueOf(rest)).longValue();
+    }
+
+    private Element permutation2Element(int[] permutation) {
+        Element[] elms = new Element[llength];
+        for (int i = 0; i < llength; i++) {
+            elms[i] = values[permutation[i]];
+        }
+        return new ContainerElement(elms);
     }
 
     public Object clone() {
@@ -109,76 +186,48 @@ public class PermutationWithRepetitionSet extends Set {
     }
 
     public SetIterator iterator() {
+        return iterator(1, size);
+    }
+
+    public SetIterator iterator(final long first, final long last) {
         return new SetIterator() {
-            private int[] layout = new int[(int) llength];
-            private Element el;
-            private long index;
+            private int[] permutation = new int[llength];
+            private long index = first;
 
             public boolean hasNext() {
-                return index < size;
-            }
-
-            public Element getCurrent() {
-                return el;
+                return index <= last;
             }
 
             public Element next() {
                 if (!hasNext()) return null;
 
-                if ((index == 0) || (index % tlength == 0)) {
-                    for (int j = 1; j <= llength; j++) layout[j - 1] = j;
+                if (index == first) {
+                    unrank(first - 1, permutation);
                 } else {
-                    int little = layout.length - 2;
-
-                    while ((little >= 0) && (layout[little] > layout[little + 1])) little--;
+                    // следующая перестановка мультимножества в лексикографическом порядке
+                    int little = permutation.length - 2;
+                    while (permutation[little] >= permutation[little + 1]) little--;
 
-                    //if (little < 0) return;
+                    int big = permutation.length - 1;
+                    while (permutation[little] >= permutation[big]) big--;
 
-                    int big = layout.length - 1;
+                    int temp = permutation[little];
+                    permutation[little] = permutation[big];
+                    permutation[big] = temp;
 
-                    while (layout[little] > layout[big]) big--;
-
-                    int temp = layout[little];
-                    layout[little] = layout[big];
-                    layout[big] = temp;
-
-                    for (int i = 1; i < (layout.length - little + 1) / 2; i++) {
-                        temp = layout[little + i];
-                        layout[little + i] = layout[layout.length - i];
-                        layout[layout.length - i] = temp;
+                    for (int i = little + 1, j = permutation.length - 1; i < j; i++, j--) {
+                        temp = permutation[i];
+                        permutation[i] = permutation[j];
+                        permutation[j] = temp;
                     }
                 }
-                if (layout2Element()) {
-                    index++;
-                    return el;
-                } else {
-                    return next();
-                }
+                index++;
+                return permutation2Element(permutation);
             }
 
             public void reset() {
-                index = 0;
-            }
-
-            private boolean layout2Element() {
-                Map<Element, Integer> map = new HashMap();
-                Element[] elms = new Element[llength];
-                for (int i = 0; i < llength; i++) {
-                    Element el = listOfElements.get(layout[i] - 1);
-                    elms[i] = el;
-                    Integer index = map.get(el);
-                    if (index != null) {
-                        if (index > layout[i]) {
-                            return false;
-                        }
-                    }
-                    index = layout[i];
-                    map.put(el, index);
-                }
-                this.el = new ContainerElement(elms);
-                return true;
+                index = first;
             }
         };
     }
 }
-
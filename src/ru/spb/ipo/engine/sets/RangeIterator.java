@@ -0,0 +1,58 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.sets;
+
+import ru.spb.ipo.engine.elements.Element;
+
+/**
+ * Итератор по отрезку номеров [first, last] множества, использующий getElement(index).
+ */
+public class RangeIterator implements SetIterator {
+
+    private Set set;
+
+    private long first;
+
+    private long last;
+
+    private long index;
+
+    public RangeIterator(Set set, long first, long last) {
+        this.set = set;
+        this.first = first;
+        this.last = last;
+        reset();
+    }
+
+    public boolean hasNext() {
+        return index <= last;
+    }
+
+    public Element next() {
+        if (!hasNext()) {
+            return null;
+        }
+        return set.getElement(index++);
+    }
+
+    public void reset() {
+        index = first;
+    }
+}
@@ -24,6 +24,7 @@ import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.exception.XmlException;
 import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.utils.Utils;
 
 
 /**
@@ -61,7 +62,7 @@ abstract public class Set {
         String type = "ru.spb.ipo.engine.sets." + shortType;
         Set s = null;
         try {
-            s = (Set) Class.forName(type).newInstance();
+            s = (Set) Utils.forName(type).newInstance();
             s.initSet(node);
         } catch (ClassNotFoundException e) {
 //    		throw new SystemException("Couldn't find class for function " + type, e);
@@ -93,4 +94,65 @@ abstract public class Set {
 
     abstract public SetIterator iterator();
 
+    /**
+     * Возвращает итератор по элементам с номерами от first до last включительно (нумерация с 1).
+     * Порядок элементов совпадает с порядком iterator(). По умолчанию элементы берутся через getElement(index).
+     */
+    public SetIterator iterator(long first, long last) {
+        return new RangeIterator(this, first, last);
+    }
+
+    /**
+     * Возвращает номер элемента (с 1), обратная операция к getElement(index), или -1, если элемента нет в множестве.
+     * По умолчанию элемент ищется перебором.
+     */
+    public long rank(Element element) {
+        SetIterator it = iterator();
+        long index = 1;
+        while (it.hasNext()) {
+            if (it.next().equals(element)) {
+                return index;
+            }
+            index++;
+        }
+        return -1;
+    }
+
+    /**
+     * Реализован ли у множества getElement(index), т.е. можно ли перебирать его по частям.
+     */
+    public boolean isRandomAccess() {
+        return true;
+    }
+
+    /**
+     * Возвращает итератор-курсор по всем элементам множества.
+     */
+    public SetIterator cursor() {
+        return cursor(1, getSize());
+    }
+
+    /**
+     * Итератор по элементам с номерами от first до last, который может возвращать один и тот же
+     * изменяемый элемент (например, IntTupleElement). Элемент действителен только до следующего вызова next(),
+     * сохранять его можно только через clone(). По умолчанию совпадает с iterator(first, last).
+     */
+    public SetIterator cursor(long first, long last) {
+        return iterator(first, last);
+    }
+
+    /**
+     * Все ли элементы множества - целые числа (IntElement).
+     */
+    public boolean isIntValued() {
+        return false;
+    }
+
+    /**
+     * Возвращает целое значение элемента с номером index, имеет смысл, только если isIntValued().
+     */
+    public int getIntValue(long index) {
+        return getElement(index).getInt();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.sets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Цепочка стабилизаторов группы перестановок точек 0..n-1 (таблица Симса), строится алгоритмом
+ * Шрайера-Симса в варианте Кнута. Уровень k - подгруппа перестановок, оставляющих на месте точки k+1..n-1,
+ * transversal[k][j] - перестановка этой подгруппы, переводящая k в j, или null.
+ * <p/>
+ * Порядок группы - произведение длин орбит по уровням, принадлежность проверяется просеиванием,
+ * перечислять элементы группы не нужно.
+ */
+class StabilizerChain {
+
+    private final int n;
+
+    private final int[][][] transversal;
+
+    // обратные к перестановкам transversal
+    private final int[][][] inverse;
+
+    // образующие уровней
+    private final List<int[]>[] generators;
+
+    /**
+     * @param gens образующие группы, gens[g][x] - образ точки x
+     */
+    StabilizerChain(int n, int[][] gens) {
+        this.n = n;
+        transversal = new int[n][n][];
+        inverse = new int[n][n][];
+        generators = new List[n];
+        int[] identity = new int[n];
+        for (int i = 0; i < n; i++) {
+            identity[i] = i;
+        }
+        for (int k = 0; k < n; k++) {
+            transversal[k][k] = identity;
+            inverse[k][k] = identity;
+            generators[k] = new ArrayList<int[]>();
+        }
+        for (int g = 0; g < gens.length; g++) {
+            add(n - 1, gens[g]);
+        }
+    }
+
+    /**
+     * Порядок группы, Long.MAX_VALUE, если он не помещается в long.
+     */
+    long order() {
+        long order = 1;
+        for (int k = 0; k < n; k++) {
+            try {
+                order = Math.multiplyExact(order, orbitSize(k));
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Группа - вся симметрическая группа: на каждом уровне орбита точки k - все точки 0..k.
+     */
+    boolean isSymmetric() {
+        for (int k = 0; k < n; k++) {
+            if (orbitSize(k) != k + 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean contains(int[] p) {
+        return p.length == n && sift(n - 1, p);
+    }
+
+    private int orbitSize(int k) {
+        int size = 0;
+        for (int j = 0; j <= k; j++) {
+            if (transversal[k][j] != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    // добавляет перестановку t, оставляющую на месте точки k+1..n-1, к образующим уровня k
+    private void add(int k, int[] t) {
+        if (k < 0 || sift(k, t)) {
+            return;
+        }
+        generators[k].add(t);
+        List<int[]> reps = new ArrayList<int[]>();
+        for (int j = 0; j <= k; j++) {
+            if (transversal[k][j] != null) {
+                reps.add(transversal[k][j]);
+            }
+        }
+        for (int[] rep : reps) {
+            extend(k, compose(t, rep));
+        }
+    }
+
+    // t - элемент группы уровня k: либо новая точка орбиты, либо порождает образующую Шрайера уровня k-1
+    private void extend(int k, int[] t) {
+        int j = t[k];
+        if (transversal[k][j] != null) {
+            add(k - 1, compose(inverse[k][j], t));
+            return;
+        }
+        transversal[k][j] = t;
+        inverse[k][j] = invert(t);
+        List<int[]> gens = generators[k];
+        for (int g = 0; g < gens.size(); g++) {
+            extend(k, compose(gens.get(g), t));
+        }
+    }
+
+    private boolean sift(int k, int[] t) {
+        for (int i = k; i >= 0; i--) {
+            int j = t[i];
+            if (transversal[i][j] == null) {
+                return false;
+            }
+            if (j != i) {
+                t = compose(inverse[i][j], t);
+            }
+        }
+        return true;
+    }
+
+    // (a * b)[x] = a[b[x]]: сначала b, затем a
+    private int[] compose(int[] a, int[] b) {
+        int[] c = new int[n];
+        for (int x = 0; x < n; x++) {
+            c[x] = a[b[x]];
+        }
+        return c;
+    }
+
+    private int[] invert(int[] a) {
+        int[] c = new int[n];
+        for (int x = 0; x < n; x++) {
+            c[a[x]] = x;
+        }
+        return c;
+    }
+}
@@ -21,42 +21,48 @@ package ru.spb.ipo.engine.sets;
 
 import ru.spb.ipo.engine.elements.ContainerElement;
 import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntElement;
 import ru.spb.ipo.engine.elements.PermutationElement;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.functions.AbstractFunction;
 import ru.spb.ipo.engine.task.Node;
+import ru.spb.ipo.engine.utils.MathOperations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
 import java.util.List;
 
 public class SubstitutionSet extends Set {
 
-    private List items;
     private int dimension; // длина каждой перестановки в наборе перестановок
 
+    // базисные перестановки как массивы номеров (с 0)
+    private int[][] basis = new int[0][];
+
+    // цепочка стабилизаторов: порядок группы и проверка принадлежности без перечисления элементов
+    private volatile StabilizerChain chain;
+
+    // перестановки набора как массивы номеров (с 0), строятся при первом обращении к элементам
+    private volatile int[][] indexes;
+
+    private volatile List items;
+
     public SubstitutionSet() {
     }
 
     public SubstitutionSet(int dim) { // создает тривиальную группу перестановок из одного единичного элемента
         dimension = dim;
-        items = new ArrayList();
-        items.add(new PermutationElement(dim));
     }
 
     public SubstitutionSet(int dim, PermutationElement[] basis) {
         dimension = dim;
-        items = new ArrayList();
-        applyBasisRecursively(new PermutationElement(dim), basis);
-    }
-
-    private void applyBasisRecursively(PermutationElement t, PermutationElement[] basis) {
-        if (!items.contains(t)) {
-            items.add(t);
-            for (int i = 0; i < basis.length; i++) {
-                PermutationElement next = basis[i];
-                applyBasisRecursively(next.applyTo(t), basis);
-            }
+        this.basis = new int[basis.length][];
+        for (int i = 0; i < basis.length; i++) {
+            this.basis[i] = toIndexes(basis[i]);
+            if (this.basis[i] == null)
+                throw new IllegalArgumentException("SubstitutionSet: " + basis[i] + " is not a permutation of length " + dim);
         }
     }
 
@@ -73,36 +79,273 @@ public class SubstitutionSet extends Set {
             dimension = new Integer(dimAttr);
         }
 
-        PermutationElement[] basis = new PermutationElement[containers.size()];
+        basis = new int[containers.size()][];
 
         for (int i = 0; i < containers.size(); i++) {
             ContainerElement container = (ContainerElement) containers.get(i);
             if (container.getLength() != dimension)
                 throw new TaskDeserializationException("SubstitutionSet: размер вложенных базисных перестановок должен быть равен dim");
-            basis[i] = new PermutationElement(container);
+            basis[i] = toIndexes(container);
+            if (basis[i] == null)
+                throw new TaskDeserializationException("SubstitutionSet: базисные элементы должны быть перестановками чисел от 1 до dim");
         }
+    }
 
-        items = new ArrayList();
-        applyBasisRecursively(new PermutationElement(dimension), basis);
+    // номера (с 0) перестановки p или null, если p - не перестановка чисел 1..dimension
+    private int[] toIndexes(Element p) {
+        if (p.getLength() != dimension) {
+            return null;
+        }
+        int[] perm = new int[dimension];
+        boolean[] used = new boolean[dimension];
+        for (int i = 0; i < dimension; i++) {
+            int v = p.getElementAt(i + 1).getInt() - 1;
+            if (v < 0 || v >= dimension || used[v]) {
+                return null;
+            }
+            used[v] = true;
+            perm[i] = v;
+        }
+        return perm;
     }
 
     public boolean canMake(ContainerElement a, ContainerElement b) {
-        boolean found = false;
-        for (int i = 0; i < items.size() && (!found); i++)
-            found = ((PermutationElement) items.get(i)).applyTo(a).equals(b);
-        return found;
+        Element[] source = components(a);
+        if (b.getLength() != dimension) {
+            return false;
+        }
+        int[][] perms = getIndexes();
+        for (int g = 0; g < perms.length; g++) {
+            int[] perm = perms[g];
+            int i = 0;
+            while (i < dimension && source[perm[i]].equals(b.getElementAt(i + 1))) {
+                i++;
+            }
+            if (i == dimension) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Канонический представитель орбиты кортежа a - лексикографически минимальный из образов a
+     * под действием перестановок набора. canMake(a, b) верно, только если канонические формы a и b равны.
+     * Для полной симметрической группы это просто упорядоченный кортеж.
+     */
+    public ContainerElement canonize(ContainerElement a) {
+        Element[] source = components(a);
+        if (isSymmetric()) {
+            Arrays.sort(source);
+            return new ContainerElement(source);
+        }
+        int[][] perms = getIndexes();
+        int[] best = perms[0];
+        for (int g = 1; g < perms.length; g++) {
+            int[] perm = perms[g];
+            for (int i = 0; i < dimension; i++) {
+                int c = source[perm[i]].compareTo(source[best[i]]);
+                if (c != 0) {
+                    if (c < 0) best = perm;
+                    break;
+                }
+            }
+        }
+        Element[] image = new Element[dimension];
+        for (int i = 0; i < dimension; i++) {
+            image[i] = source[best[i]];
+        }
+        return new ContainerElement(image);
+    }
+
+    /**
+     * Число перестановок набора, оставляющих кортеж a на месте (порядок стабилизатора).
+     */
+    public long stabilizerSize(Element a) {
+        Element[] source = components(a);
+        if (isSymmetric()) {
+            // стабилизатор - перестановки внутри групп равных компонент
+            Arrays.sort(source);
+            long size = 1;
+            int run = 1;
+            for (int i = 1; i < dimension; i++) {
+                if (source[i].compareTo(source[i - 1]) == 0) {
+                    run++;
+                } else {
+                    size *= MathOperations.factorialLong(run);
+                    run = 1;
+                }
+            }
+            return size * MathOperations.factorialLong(run);
+        }
+        long size = 0;
+        int[][] perms = getIndexes();
+        for (int g = 0; g < perms.length; g++) {
+            int[] perm = perms[g];
+            int i = 0;
+            while (i < dimension && source[perm[i]].compareTo(source[i]) == 0) {
+                i++;
+            }
+            if (i == dimension) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Образы кортежа a под действием порождающих перестановок набора.
+     */
+    public ContainerElement[] generatorImages(Element a) {
+        Element[] source = components(a);
+        ContainerElement[] images = new ContainerElement[basis.length];
+        for (int g = 0; g < basis.length; g++) {
+            Element[] image = new Element[dimension];
+            for (int i = 0; i < dimension; i++) {
+                image[i] = source[basis[g][i]];
+            }
+            images[g] = new ContainerElement(image);
+        }
+        return images;
+    }
+
+    private Element[] components(Element a) {
+        if (a.getLength() != dimension)
+            throw new RuntimeException(
+                    new Formatter()
+                            .format("Permutation length %1$d does not match list length %2$d", dimension, a.getLength())
+                            .toString());
+        Element[] source = new Element[dimension];
+        for (int i = 0; i < dimension; i++) {
+            source[i] = a.getElementAt(i + 1);
+        }
+        return source;
+    }
+
+    /**
+     * Набор содержит все dim! перестановок.
+     */
+    public boolean isSymmetric() {
+        return dimension > 0 && getChain().isSymmetric();
+    }
+
+    /**
+     * Принадлежит ли перестановка p группе, порожденной базисом. Проверяется по цепочке стабилизаторов.
+     */
+    public boolean contains(Element p) {
+        int[] perm = toIndexes(p);
+        return perm != null && getChain().contains(perm);
+    }
+
+    private StabilizerChain getChain() {
+        StabilizerChain c = chain;
+        if (c == null) {
+            synchronized (this) {
+                c = chain;
+                if (c == null) {
+                    c = new StabilizerChain(dimension, basis);
+                    chain = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private int[][] getIndexes() {
+        int[][] perms = indexes;
+        if (perms == null) {
+            synchronized (this) {
+                perms = indexes;
+                if (perms == null) {
+                    perms = closure();
+                    indexes = perms;
+                }
+            }
+        }
+        return perms;
+    }
+
+    /**
+     * Все перестановки группы обходом в глубину с явным стеком: перестановка, затем ее образы под каждой
+     * базисной перестановкой по очереди. Порядок тот же, что у прежнего рекурсивного обхода,
+     * поэтому номера элементов не изменились.
+     */
+    private int[][] closure() {
+        PermutationStore store = new PermutationStore(dimension);
+        int[] identity = new int[dimension];
+        for (int i = 0; i < dimension; i++) {
+            identity[i] = i;
+        }
+        store.add(identity);
+        // стек: номер перестановки в store и номер следующей базисной перестановки
+        int[] stackPerm = new int[16];
+        int[] stackNext = new int[16];
+        int depth = 1;
+        int[] t = new int[dimension];
+        while (depth > 0) {
+            int top = depth - 1;
+            if (stackNext[top] == basis.length) {
+                depth--;
+                continue;
+            }
+            int[] next = basis[stackNext[top]++];
+            store.compose(stackPerm[top], next, t);
+            int added = store.add(t);
+            if (added >= 0) {
+                if (depth == stackPerm.length) {
+                    stackPerm = Arrays.copyOf(stackPerm, depth * 2);
+                    stackNext = Arrays.copyOf(stackNext, depth * 2);
+                }
+                stackPerm[depth] = added;
+                stackNext[depth] = 0;
+                depth++;
+            }
+        }
+        return store.toArray();
+    }
+
+    private List getItems() {
+        List list = items;
+        if (list == null) {
+            synchronized (this) {
+                list = items;
+                if (list == null) {
+                    int[][] perms = getIndexes();
+                    list = new ArrayList(perms.length);
+                    for (int g = 0; g < perms.length; g++) {
+                        Element[] e = new Element[dimension];
+                        for (int i = 0; i < dimension; i++) {
+                            e[i] = new IntElement(perms[g][i] + 1);
+                        }
+                        list.add(new PermutationElement(e));
+                    }
+                    items = list;
+                }
+            }
+        }
+        return list;
     }
 
     public Element getElement(long index) {
-        return (Element) items.get((int) index - 1);
+        return (Element) getItems().get((int) index - 1);
+    }
+
+    public long rank(Element element) {
+        if (!contains(element)) {
+            return -1;
+        }
+        return super.rank(element);
     }
 
     public int getLength() {
         return dimension;
     }
 
+    /**
+     * Порядок группы по цепочке стабилизаторов, сами перестановки при этом не строятся.
+     */
     public long getSize() {
-        return items.size();
+        return getChain().order();
     }
 
 
@@ -123,4 +366,95 @@ public class SubstitutionSet extends Set {
             }
         };
     }
+
+    /**
+     * Перестановки одной длины, упакованные подряд в один массив int, с открытой адресацией по хешу.
+     */
+    private static class PermutationStore {
+
+        private final int n;
+
+        private int[] data;
+
+        private int count;
+
+        // номер перестановки + 1, 0 - пустая ячейка
+        private int[] table = new int[64];
+
+        PermutationStore(int n) {
+            this.n = n;
+            data = new int[Math.max(n, 1) * 16];
+        }
+
+        /**
+         * Добавляет копию перестановки p.
+         *
+         * @return номер добавленной перестановки или -1, если такая уже есть
+         */
+        int add(int[] p) {
+            int mask = table.length - 1;
+            int slot = hash(p, 0) & mask;
+            while (table[slot] != 0) {
+                if (equals(table[slot] - 1, p)) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (count * n + n > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            System.arraycopy(p, 0, data, count * n, n);
+            table[slot] = ++count;
+            if (count * 2 > table.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        // r[i] = t[next[i]], где t - перестановка с номером index (как PermutationElement.applyTo)
+        void compose(int index, int[] next, int[] r) {
+            int offset = index * n;
+            for (int i = 0; i < n; i++) {
+                r[i] = data[offset + next[i]];
+            }
+        }
+
+        int[][] toArray() {
+            int[][] perms = new int[count][];
+            for (int g = 0; g < count; g++) {
+                perms[g] = Arrays.copyOfRange(data, g * n, g * n + n);
+            }
+            return perms;
+        }
+
+        private boolean equals(int index, int[] p) {
+            int offset = index * n;
+            for (int i = 0; i < n; i++) {
+                if (data[offset + i] != p[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int hash(int[] a, int offset) {
+            int h = 1;
+            for (int i = 0; i < n; i++) {
+                h = 31 * h + a[offset + i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int g = 0; g < count; g++) {
+                int slot = hash(data, g * n) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = g + 1;
+            }
+        }
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.task;
+
+import ru.spb.ipo.engine.utils.FileAccessUtil;
+import ru.spb.ipo.engine.utils.MyLogger;
+import ru.spb.ipo.engine.utils.SystemProperties;
+import ru.spb.ipo.engine.verifiers.SystemAnswer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Кэш ответов системы. Ключ - хэш файла задачи, параметры генерации условия и параметры верификации,
+ * ответ пользователя в ключ не входит. Вытесняется давно не использованный ответ.
+ * Если задан файл (answerCacheFile), кэш загружается из него при старте и сохраняется при остановке.
+ */
+public class AnswerCache {
+
+    public static AnswerCache instance = new AnswerCache(
+            SystemProperties.getInt(SystemProperties.ANSWER_CACHE_SIZE),
+            SystemProperties.getString(SystemProperties.ANSWER_CACHE_FILE));
+
+    private final int capacity;
+
+    private final File file;
+
+    private final LinkedHashMap<String, SystemAnswer> answers;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    public AnswerCache(final int capacity, String fileName) {
+        this.capacity = capacity;
+        answers = new LinkedHashMap<String, SystemAnswer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, SystemAnswer> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        file = fileName == null || fileName.length() == 0 ? null : new File(fileName);
+        if (file != null) {
+            load();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    save();
+                }
+            });
+        }
+    }
+
+    /**
+     * Каждая строка ключа записывается со своей длиной, поэтому ", ", "=" и "}" в значениях
+     * параметров не дают разным наборам одинаковый ключ.
+     */
+    public static String key(String taskHash, Map genParams, Map verifierParams) {
+        StringBuilder sb = new StringBuilder(taskHash);
+        appendParams(sb, genParams);
+        appendParams(sb, verifierParams);
+        return sb.toString();
+    }
+
+    private static void appendParams(StringBuilder sb, Map params) {
+        sb.append('\n').append(params.size());
+        for (Object o : new TreeMap(params).entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            appendString(sb, String.valueOf(entry.getKey()));
+            appendString(sb, entry.getValue() == null ? null : entry.getValue().toString());
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append(";-");
+        } else {
+            sb.append(';').append(value.length()).append(':').append(value);
+        }
+    }
+
+    /**
+     * SHA-1 содержимого файла задачи: изменение файла делает старые ответы недостижимыми.
+     */
+    public static String hashTask(String taskFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        InputStream is = FileAccessUtil.getInputStream(taskFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    public synchronized SystemAnswer get(String key) {
+        if (capacity <= 0) {
+            return null;
+        }
+        SystemAnswer answer = answers.get(key);
+        if (answer == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return answer;
+    }
+
+    /**
+     * Есть ли ответ в кэше; в отличие от get, не учитывается в статистике и не меняет порядок вытеснения.
+     */
+    public synchronized boolean contains(String key) {
+        return capacity > 0 && answers.containsKey(key);
+    }
+
+    public synchronized void put(String key, SystemAnswer answer) {
+        if (capacity > 0) {
+            answers.put(key, answer);
+        }
+    }
+
+    public synchronized void clear() {
+        answers.clear();
+    }
+
+    public synchronized int size() {
+        return answers.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+            try {
+                Map<String, SystemAnswer> saved = (Map<String, SystemAnswer>) in.readObject();
+                answers.putAll(saved);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            MyLogger.getLogger().warning("Can't load answer cache from " + file + ": " + e.getMessage());
+        } catch (ClassNotFoundException e) {
+            MyLogger.getLogger().warning("Can't load answer cache from " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+            try {
+                out.writeObject(new LinkedHashMap<String, SystemAnswer>(answers));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            MyLogger.getLogger().warning("Can't save answer cache to " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized String toString() {
+        return "answers=" + answers.size() + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+}
@@ -19,10 +19,8 @@
 
 package ru.spb.ipo.engine.task;
 
-import org.xml.sax.SAXException;
 import ru.spb.ipo.engine.exception.XmlException;
 
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -35,20 +33,14 @@ import java.util.Map;
 public class JavaTaskFactory implements TaskFactory {
 
     public ServerTask createServerTask(String taskFile, long problemId) throws XmlException, IOException {
-        try {
-            return new ServerTaskImpl(taskFile, problemId, this);
-        } catch (ParserConfigurationException e) {
-            throw new XmlException("Error", e);
-        } catch (SAXException e) {
-            throw new XmlException("Error", e);
-        }
+        return new ServerTaskImpl(taskFile, problemId, this);
     }
 
     public ClientTask createClientTask(String title, String description, Map genParams, long problemId, List<String> buttons) throws XmlException, IOException {
         return new ClientTaskImpl(title, description, genParams, problemId, buttons);
     }
 
-    public XmlTask createXmlTask(String fileName) throws XmlException, IOException, ParserConfigurationException, SAXException {
+    public XmlTask createXmlTask(String fileName) throws XmlException, IOException {
         return new XmlTaskImpl(fileName);
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.task;
+
+import ru.spb.ipo.engine.exception.NodeNotExistsException;
+import ru.spb.ipo.engine.exception.ParameterNotSetException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемая вершина, полученная из TaskTemplate. Копировать ее не нужно, makeCopy возвращает ее саму.
+ */
+class ModelNode implements Node {
+
+    private final String name;
+
+    private final String path;
+
+    private final String[] attrNames;
+
+    private final String[] attrValues;
+
+    private final String text;
+
+    private final List<Node> childs;
+
+    ModelNode(String name, String path, String[] attrNames, String[] attrValues, String text, List<Node> childs) {
+        this.name = name;
+        this.path = path;
+        this.attrNames = attrNames;
+        this.attrValues = attrValues;
+        this.text = text;
+        this.childs = childs;
+    }
+
+    public Node makeCopy() {
+        return this;
+    }
+
+    public String getNodeName() {
+        return name;
+    }
+
+    public List<Node> getChilds(String name) {
+        if (name == null) {
+            return Collections.unmodifiableList(childs);
+        }
+        List<Node> result = new ArrayList<Node>();
+        for (Node child : childs) {
+            if (name.equals(child.getNodeName())) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    public String getAttr(String name) throws ParameterNotSetException {
+        String value = getAttrIfExists(name, null);
+        if (value == null) {
+            throw new ParameterNotSetException("Атрибут '" + name + "' для вершины " + path + " не выставлен!");
+        }
+        return value;
+    }
+
+    public String getAttrIfExists(String name, String defaultValue) {
+        for (int i = 0; i < attrNames.length; i++) {
+            if (attrNames[i].equals(name)) {
+                return attrValues[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Node getChildIfExists(String name) {
+        for (Node child : childs) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public Node getChild(String name) throws NodeNotExistsException {
+        Node node = getChildIfExists(name);
+        if (node == null) {
+            throw new NodeNotExistsException("Child node with name " + name + " not fount at " + path);
+        }
+        return node;
+    }
+
+    public Map<String, Node> getAttrs() {
+        Map<String, Node> result = new HashMap<String, Node>();
+        for (int i = 0; i < attrNames.length; i++) {
+            result.put(attrNames[i], new ModelNode(attrNames[i], path + "/@" + attrNames[i], new String[0], new String[0], attrValues[i], Collections.<Node>emptyList()));
+        }
+        return result;
+    }
+
+    public void update(String newNodeValue) {
+        throw new UnsupportedOperationException("Task model node " + path + " is immutable");
+    }
+
+    public void addToParent(Node newChild) {
+        throw new UnsupportedOperationException("Task model node " + path + " is immutable");
+    }
+
+    public void removeFromParent(Node oldChild) {
+        throw new UnsupportedOperationException("Task model node " + path + " is immutable");
+    }
+
+    public boolean isEmptyWrapper() {
+        return false;
+    }
+
+    public List<Node> getFunctionList() {
+        List<Node> functions = new ArrayList<Node>();
+        for (Node child : childs) {
+            String name = child.getNodeName();
+            if (name.equals("element") || name.equals("constElement") || name.equals("function") || name.equals("current-set-element")) {
+                functions.add(child);
+            }
+        }
+        return functions;
+    }
+}
@@ -31,7 +31,16 @@ public class ParametersSandbox {
     private ArrayList<Parameter> parameters = new ArrayList<Parameter>();
     private List<String> parameterNames;
 
-    private List classedParameters;
+    private String[] names;
+    private String[][] values;
+    private String[][] texts;
+    private int[] paramClass;
+    private int[] radix;
+    private int size;
+    private Map<String, Integer> valueKeys = new HashMap<String, Integer>();
+    private Map<String, Integer> textKeys = new HashMap<String, Integer>();
+
+    private static final Random random = new Random();
 
     public ParametersSandbox(Node node) throws XmlException {
         if (node == null || node.isEmptyWrapper()) {
@@ -66,21 +75,63 @@ public class ParametersSandbox {
             }
             Parameter pparameter = new Parameter(name, pClass, values);
             this.parameters.add(pparameter);
-            ArrayList params = (ArrayList) class2parameters.get(pClass);
+            List<Parameter> params = class2parameters.get(pClass);
             if (params == null) {
-                params = new ArrayList();
+                params = new ArrayList<Parameter>();
                 class2parameters.put(pClass, params);
             }
             params.add(pparameter);
         }
+        buildTables();
+    }
+
+    /**
+     * Таблицы значений для разбора номера набора: классы пронумерованы в порядке первого появления,
+     * номер набора - число в смешанной системе счисления с основаниями - размерами классов,
+     * младший разряд - первый класс.
+     */
+    private void buildTables() {
+        int n = parameters.size();
+        names = new String[n];
+        values = new String[n][];
+        texts = new String[n][];
+        paramClass = new int[n];
+        Map<String, Integer> classIndex = new HashMap<String, Integer>();
+        List<Integer> radixes = new ArrayList<Integer>();
+        for (int p = 0; p < n; p++) {
+            Parameter parameter = parameters.get(p);
+            names[p] = parameter.getName();
+            List<Value> list = parameter.getValues();
+            values[p] = new String[list.size()];
+            texts[p] = new String[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                values[p][i] = list.get(i).getValue();
+                texts[p][i] = list.get(i).getText();
+            }
+            Integer c = classIndex.get(parameter.getMyClass());
+            if (c == null) {
+                c = radixes.size();
+                classIndex.put(parameter.getMyClass(), c);
+                radixes.add(getClassSize(parameter.getMyClass()));
+            }
+            paramClass[p] = c;
+            valueKeys.put(names[p], p);
+            textKeys.put(names[p] + "-text", p);
+        }
+        radix = new int[radixes.size()];
+        size = 1;
+        for (int c = 0; c < radix.length; c++) {
+            radix[c] = radixes.get(c);
+            size *= radix[c];
+        }
     }
 
     private int getClassSize(String name) {
-        ArrayList parameters = (ArrayList) class2parameters.get(name);
+        List<Parameter> parameters = class2parameters.get(name);
         if (parameters == null || parameters.size() == 0) {
             return 0;
         }
-        return ((Parameter) parameters.get(0)).getValues().size();
+        return parameters.get(0).getValues().size();
     }
 
 
@@ -91,55 +142,43 @@ public class ParametersSandbox {
         return false;
     }
 
-    public Iterator getIterator() {
-        if (isEmpty()) return EMPTY_MAP.keySet().iterator();//HACK =)
-        return new Iterator() {
+    /**
+     * Число наборов параметров, которые перебирает getIterator.
+     */
+    public int getSize() {
+        return isEmpty() ? 0 : size;
+    }
+
+    /**
+     * Набор параметров с номером index, от 0 до getSize() - 1.
+     */
+    public Map<String, String> getParameters(int index) {
+        int[] digits = new int[radix.length];
+        for (int c = 0; c < radix.length; c++) {
+            digits[c] = index % radix[c];
+            index /= radix[c];
+        }
+        return new ParameterMap(this, digits);
+    }
+
+    /**
+     * Наборы создаются по мере перебора, каждый - неизменяемое представление над общими таблицами значений.
+     */
+    public Iterator<Map<String, String>> getIterator() {
+        if (isEmpty()) return Collections.<Map<String, String>>emptyList().iterator();
+        return new Iterator<Map<String, String>>() {
 
-            private int numberOfclasses = class2parameters.keySet().size();
             private int index = 0;
-            private int size = getSize();
-            HashMap hm = new HashMap();
-
-            private int getSize() {
-                int temp = 1;
-                for (Iterator iter = class2parameters.keySet().iterator(); iter.hasNext(); ) {
-                    String myClass = (String) iter.next();
-                    temp *= getClassSize(myClass);
-                }
-                return temp;
-            }
 
             public boolean hasNext() {
-                return (index + 1 <= size);
+                return index < size;
             }
 
-            public Object next() {
-                Map m = new HashMap();
-                Iterator i = parameters.iterator();
-                int tmp = index;
-                hm.clear();
-                while (i.hasNext()) {
-                    Parameter parameter = (Parameter) i.next();
-                    List<Value> values = parameter.getValues();
-                    parameter.getClass();
-                    String pClass = parameter.getMyClass();
-                    int classSize = getClassSize(pClass);
-                    int valueIndex = 0;
-                    if (hm.containsKey(pClass)) {
-                        valueIndex = ((Integer) hm.get(pClass)).intValue();
-                    } else {
-                        valueIndex = tmp % classSize;
-                        hm.put(pClass, new Integer(valueIndex));
-                        tmp = tmp / classSize;
-                    }
-                    m.put(parameter.getName(), values.get(valueIndex).getValue());
-                    if (!"".equals(values.get(valueIndex).getText())) {
-                        m.put(parameter.getName() + "-text", values.get(valueIndex).getText());
-                    }
+            public Map<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
-                index++;
-                System.out.println(index + "   " + m);
-                return m;
+                return getParameters(index++);
             }
 
             public void remove() {
@@ -148,22 +187,14 @@ public class ParametersSandbox {
         };
     }
 
+    /**
+     * Случайный набор параметров; номер набора выбирается сразу, без построения всех наборов.
+     */
     public Map getRandomParameters() {
         if (isEmpty()) {
             return EMPTY_MAP;
         }
-
-        if (classedParameters == null) {
-            classedParameters = new ArrayList();
-            Iterator it = getIterator();
-            while (it.hasNext()) {
-                classedParameters.add(it.next());
-            }
-        }
-
-        Random random = new Random();
-        int index = random.nextInt(classedParameters.size());
-        return (Map) classedParameters.get(index);
+        return getParameters(random.nextInt(size));
     }
 
     private static Map EMPTY_MAP = Collections.EMPTY_MAP;
@@ -183,5 +214,99 @@ public class ParametersSandbox {
         }
     }
 
+    /**
+     * Набор параметров: значение параметра по имени и текст значения по имени с суффиксом "-text",
+     * если текст задан. Сериализуется как обычный HashMap.
+     */
+    private static class ParameterMap extends AbstractMap<String, String> implements java.io.Serializable {
+
+        private final ParametersSandbox sandbox;
+
+        private final int[] digits;
+
+        ParameterMap(ParametersSandbox sandbox, int[] digits) {
+            this.sandbox = sandbox;
+            this.digits = digits;
+        }
+
+        private String value(int p) {
+            return sandbox.values[p][digits[sandbox.paramClass[p]]];
+        }
+
+        private String text(int p) {
+            String text = sandbox.texts[p][digits[sandbox.paramClass[p]]];
+            return "".equals(text) ? null : text;
+        }
+
+        public String get(Object key) {
+            Integer p = sandbox.valueKeys.get(key);
+            if (p != null) {
+                return value(p);
+            }
+            p = sandbox.textKeys.get(key);
+            return p != null ? text(p) : null;
+        }
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+
+                        // номер параметра и признак того, что следующим идет его текст
+                        private int p;
+                        private boolean onText;
 
+                        public boolean hasNext() {
+                            skipAbsentText();
+                            return p < sandbox.names.length;
+                        }
+
+                        public Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry;
+                            if (onText) {
+                                entry = new SimpleImmutableEntry<String, String>(sandbox.names[p] + "-text", text(p));
+                                p++;
+                            } else {
+                                entry = new SimpleImmutableEntry<String, String>(sandbox.names[p], value(p));
+                            }
+                            onText = !onText;
+                            return entry;
+                        }
+
+                        private void skipAbsentText() {
+                            if (onText && p < sandbox.names.length && text(p) == null) {
+                                onText = false;
+                                p++;
+                            }
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                public int size() {
+                    int size = sandbox.names.length;
+                    for (int p = 0; p < sandbox.names.length; p++) {
+                        if (text(p) != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private Object writeReplace() {
+            return new HashMap<String, String>(this);
+        }
+    }
 }
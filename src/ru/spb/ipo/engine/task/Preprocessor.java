@@ -26,110 +26,94 @@ import java.util.*;
 
 public class Preprocessor {
 
-    private static java.util.Set hs = new TreeSet(Arrays.asList(new String[]{"for"}));
-
+    /**
+     * Подставляет параметры и раскрывает макросы for.
+     */
     public static Node executeTask(Node node, Map parameters) throws XmlException {
-        return generateTask(node.makeCopy(), parameters, true);
+        if (node == null) {
+            return node;
+        }
+        return TaskTemplate.compile(node).instantiate(Collections.EMPTY_MAP, parameters);
     }
 
+    /**
+     * Подставляет параметры, макросы остаются как есть.
+     */
     public static Node generateTask(Node node, Map parameters) throws XmlException {
-        return generateTask(node.makeCopy(), parameters, false);
-    }
-
-    //node already cloned
-    private static Node generateTask(Node node, Map parameters, boolean forExecution) throws XmlException {
         if (node == null) {
             return node;
         }
+        return TaskTemplate.compile(node).generate(parameters);
+    }
 
-        Map<String, Node> attrs = node.getAttrs();
-
-        String text = node.getText();
-        if (text != null) {
-            String newText = parse(text, parameters);
-            if (newText != text) {
-                node.update(node.getText());
-            }
+    /**
+     * Подставляет значения параметров в ответ пользователя. Имя заменяется, только если
+     * рядом с ним нет других латинских букв.
+     */
+    public static String parseAnswer(String answer, Map parameters) {
+        if (parameters.isEmpty()) {
+            return answer;
         }
-
-        if (attrs != null) {
-            for (java.util.Iterator iterator = attrs.entrySet().iterator(); iterator.hasNext(); ) {
-                Map.Entry<String, Node> attr = (Map.Entry<String, Node>) iterator.next();
-                parseAttr(attr.getValue(), parameters);
-            }
+        if (!isOnePass(answer, parameters)) {
+            return replaceByName(answer, parameters);
         }
-
-        if (forExecution && hs.contains(node.getNodeName())) {
-            expandMacros(node, parameters, forExecution);
-        } else {
-            List<Node> childNodes = node.getChilds(null);
-
-            if (childNodes != null) {
-                for (Node child : childNodes) {
-                    Node newChild = parse(child, parameters);
-                    generateTask(newChild, parameters, forExecution);
+        StringBuilder sb = null;
+        int copied = 0;
+        int len = answer.length();
+        int i = 0;
+        while (i < len) {
+            if (!Parser.isLetter(answer.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < len && Parser.isLetter(answer.charAt(i))) i++;
+            String value = (String) parameters.get(answer.substring(start, i));
+            if (value != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(len + 16);
                 }
+                sb.append(answer, copied, start).append(value);
+                copied = i;
             }
         }
-
-        return node;
-    }
-
-    private static Node parse(Node node, Map parameters) {
-        if (node.getText() != null) {
-            node.update(parse(node.getText(), parameters));
+        if (sb == null) {
+            return answer;
         }
-        return node;
+        return sb.append(answer, copied, len).toString();
     }
 
-    private static void parseAttr(Node attr, Map parameters) {
-        attr.update(parse(attr.getText(), parameters));
-    }
-
-    private static String parse(String input, Map parameters) {
-        Iterator it = parameters.keySet().iterator();
+    /**
+     * Подстановку можно сделать за один проход по словам ответа, если значения не содержат букв,
+     * а имена из одних букв или не встречаются в ответе.
+     */
+    private static boolean isOnePass(String answer, Map parameters) {
+        Iterator it = parameters.entrySet().iterator();
         while (it.hasNext()) {
-            String key = (String) it.next();
-            input = input.replaceAll("[$][{]" + key + "[}]", parameters.get(key).toString());
+            Map.Entry entry = (Map.Entry) it.next();
+            String name = (String) entry.getKey();
+            if (!isWord(name)) {
+                if (answer.indexOf(name) >= 0) return false;
+                continue;
+            }
+            String value = (String) entry.getValue();
+            if (value == null) return false;
+            for (int i = 0; i < value.length(); i++) {
+                if (Parser.isLetter(value.charAt(i))) return false;
+            }
         }
-        return input;
+        return true;
     }
 
-    public static void expandMacros(Node node, Map parameters, boolean forExecution) throws XmlException {
-        String forIndexName = node.getAttr("name");
-
-        Object oldValue = parameters.get(forIndexName);
-
-        Parser parser = new Parser();
-
-        int first = parser.parse(node.getAttr("first")).getBigInteger().intValue();
-        int last = parser.parse(node.getAttr("last")).getBigInteger().intValue();
-        int inc = parser.parse(node.getAttr("inc")).getBigInteger().intValue();
-
-        if (inc == 0) {
-            inc = 1;
+    private static boolean isWord(String name) {
+        if (name.length() == 0) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (!Parser.isLetter(name.charAt(i))) return false;
         }
-
-        for (int i = first; i <= last; i += inc) {
-            parameters.put(forIndexName, new Integer(i));
-            List<Node> childs = node.getChilds(null);
-
-            for (Node child : childs) {
-                Node temp = generateTask(child.makeCopy(), parameters, forExecution);
-                node.addToParent(temp);
-            }
-
-        }
-        if (oldValue != null) {
-            parameters.put(forIndexName, oldValue);
-        } else {
-            parameters.remove(forIndexName);
-        }
-
-        node.removeFromParent(node);
+        return true;
     }
 
-    public static String parseAnswer(String answer, Map parameters) {
+    private static String replaceByName(String answer, Map parameters) {
         Iterator it = parameters.keySet().iterator();
         StringBuffer sb = new StringBuffer(answer);
         while (it.hasNext()) {
@@ -34,8 +34,19 @@ public interface ServerTask extends TaskConstant {
 
     boolean verify(ClientTask ct) throws TaskDeserializationException, SystemException, UserAnswerParseException;
 
+    /**
+     * Оценка стоимости проверки ответа: размер перебираемого множества, умноженный на число узлов
+     * функции, по всем наборам параметров верификации, ответов для которых еще нет в кэше.
+     */
+    long estimateCost(ClientTask ct) throws TaskDeserializationException, SystemException;
+
     String getTitle();
 
+    /**
+     * Примерный объем памяти, занятый разобранной задачей, в байтах.
+     */
+    long getModelSize();
+
     ClientTask getClientTask() throws SystemException;
 
     ClientTask getClientTaskWithParameters(Map parameters) throws SystemException;
@@ -19,8 +19,6 @@
 
 package ru.spb.ipo.engine.task;
 
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.exception.UserAnswerParseException;
@@ -28,21 +26,32 @@ import ru.spb.ipo.engine.exception.XmlException;
 import ru.spb.ipo.engine.utils.FileAccessUtil;
 import ru.spb.ipo.engine.utils.FractionalNumber;
 import ru.spb.ipo.engine.utils.Parser;
+import ru.spb.ipo.engine.verifiers.ParallelEnumerator;
+import ru.spb.ipo.engine.verifiers.SystemAnswer;
 import ru.spb.ipo.engine.verifiers.Verifier;
+import ru.spb.ipo.engine.verifiers.VerifyControl;
 
 import javax.swing.*;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerTaskImpl implements ServerTask {
 
     private TaskFactory factory;
 
-    private Document root;
-
-    private XmlTask task;
+    private String title;
 
     /**
      * Description parameters
@@ -56,13 +65,29 @@ public class ServerTaskImpl implements ServerTask {
 
     private String taskFile;
 
+    // ключ задачи в кэше ответов
+    private String taskHash;
+
+    // математическое описание и условие, разобранные один раз
+    private TaskTemplate mathTemplate;
+
+    private TaskTemplate descriptionTemplate;
+
     private long problemId;
 
-    public ServerTaskImpl(String taskFile, long problemId, TaskFactory factory) throws IOException, XmlException, ParserConfigurationException, SAXException {
+    // проверка наборов параметров верификации, общая для всех задач: по пулу на каждое значение
+    // verifyParallelism, как в ParallelEnumerator; пул не останавливается, простаивающие потоки завершаются сами
+    private static final Map<Integer, ExecutorService> setExecutors = new HashMap<Integer, ExecutorService>();
+
+    public ServerTaskImpl(String taskFile, long problemId, TaskFactory factory) throws IOException, XmlException {
         this.taskFile = taskFile;
         this.problemId = problemId;
 
-        task = factory.createXmlTask(taskFile);
+        XmlTask task = factory.createXmlTask(taskFile);
+        title = task.getTitle();
+        taskHash = AnswerCache.hashTask(taskFile);
+        mathTemplate = TaskTemplate.compile(task.getMathDescription());
+        descriptionTemplate = TaskTemplate.compile(task.getDescription());
         descriptionSandbox = new ParametersSandbox(task.getDesriptionParams());
         verifierSandbox = new ParametersSandbox(task.getVerifierParams());
     }
@@ -78,38 +103,170 @@ public class ServerTaskImpl implements ServerTask {
      */
     public boolean verify(ClientTask ct) throws TaskDeserializationException, SystemException, UserAnswerParseException {
         Map currentParams = ct.getGenParams();
-        Node math = Preprocessor.generateTask(task.getMathDescription(), currentParams);
         String userAnswerRaw = ct.getAnswer();
 
         if (!verifierSandbox.isEmpty()) {
+            // ответ разбирается для всех наборов заранее; наборы после ошибки разбора не проверяются,
+            // а сама ошибка сообщается, только если все наборы до нее прошли - как при проверке по порядку
+            List<Map> parameterSets = new ArrayList<Map>();
+            List<FractionalNumber[]> answers = new ArrayList<FractionalNumber[]>();
+            UserAnswerParseException parseError = null;
             Iterator iterator = verifierSandbox.getIterator();
-            int index = 0;
             while (iterator.hasNext()) {
                 Map parameterSet = (Map) iterator.next();
-
-                Node localMathDesc = Preprocessor.executeTask(math, parameterSet);
                 String userAnswer = Preprocessor.parseAnswer(userAnswerRaw, parameterSet);
-                Parser p = new Parser();
-                FractionalNumber[] pvs = p.parseUserAnswer(userAnswer);
-                //System.out.println("user answer = " + pv);
-                //TODO System.out.println("parser value = " + pv);
-                boolean bp = getVerifier(localMathDesc).verify(pvs);
-                System.out.println("test " + index + " " + ((!bp) ? "failed" : "approved"));
-                index++;
-                if (!bp) return false;
+                try {
+                    answers.add(new Parser().parseUserAnswer(userAnswer));
+                } catch (UserAnswerParseException e) {
+                    parseError = e;
+                    break;
+                }
+                parameterSets.add(parameterSet);
             }
-            return true;
+            boolean result = parameterSets.size() > 1 && ParallelEnumerator.getParallelism() > 1
+                    ? verifyParallel(currentParams, parameterSets, answers)
+                    : verifySequential(currentParams, parameterSets, answers);
+            if (result && parseError != null) {
+                throw parseError;
+            }
+            return result;
         } else {
-            Node localMathDesc = Preprocessor.executeTask(math, new HashMap());
             Parser p = new Parser();
             FractionalNumber[] pvs = p.parseUserAnswer(userAnswerRaw);
-            return getVerifier(localMathDesc).verify(pvs);
+            return getSystemAnswer(currentParams, new HashMap()).accepts(pvs);
         }
     }
 
+    private boolean verifySequential(Map currentParams, List<Map> parameterSets, List<FractionalNumber[]> answers) throws TaskDeserializationException, SystemException {
+        for (int index = 0; index < parameterSets.size(); index++) {
+            if (!getSystemAnswer(currentParams, parameterSets.get(index)).accepts(answers.get(index))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Наборы параметров верификации проверяются одновременно, первый неверный ответ или ошибка
+     * отменяет остальные. Каждый набор проверяется со своим VerifyControl, подчиненным проверке целиком.
+     */
+    private boolean verifyParallel(final Map currentParams, List<Map> parameterSets, List<FractionalNumber[]> answers) throws TaskDeserializationException, SystemException {
+        VerifyControl parent = VerifyControl.current();
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(getSetExecutor());
+        List<VerifyControl> controls = new ArrayList<VerifyControl>(parameterSets.size());
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(parameterSets.size());
+        for (int i = 0; i < parameterSets.size(); i++) {
+            final Map parameterSet = parameterSets.get(i);
+            final FractionalNumber[] answer = answers.get(i);
+            final VerifyControl control = new VerifyControl(parent);
+            controls.add(control);
+            futures.add(completion.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    VerifyControl.attach(control);
+                    try {
+                        return getSystemAnswer(currentParams, parameterSet).accepts(answer);
+                    } finally {
+                        VerifyControl.detach();
+                    }
+                }
+            }));
+        }
+        try {
+            for (int done = 0; done < futures.size(); done++) {
+                if (!completion.take().get()) {
+                    return false;
+                }
+                Verifier.setCompleted((float) (done + 1) / futures.size());
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while verifying", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TaskDeserializationException) {
+                throw (TaskDeserializationException) cause;
+            }
+            if (cause instanceof SystemException) {
+                throw (SystemException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SystemException("Can't verify answer: " + cause.getMessage(), e);
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                controls.get(i).cancel();
+                futures.get(i).cancel(false);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getSetExecutor() {
+        int parallelism = ParallelEnumerator.getParallelism();
+        ExecutorService executor = setExecutors.get(parallelism);
+        if (executor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "verify-set-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            setExecutors.put(parallelism, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Ответ системы для параметров условия и верификации: из кэша или вычисленный верификатором.
+     */
+    private SystemAnswer getSystemAnswer(Map currentParams, Map parameterSet) throws TaskDeserializationException, SystemException {
+        String key = AnswerCache.key(taskHash, currentParams, parameterSet);
+        SystemAnswer answer = AnswerCache.instance.get(key);
+        if (answer == null) {
+            Node localMathDesc = mathTemplate.instantiate(currentParams, parameterSet);
+            answer = getVerifier(localMathDesc).computeAnswer();
+            AnswerCache.instance.put(key, answer);
+        }
+        return answer;
+    }
+
+    public long estimateCost(ClientTask ct) throws TaskDeserializationException, SystemException {
+        Map currentParams = ct.getGenParams();
+        List<Map> pending = new ArrayList<Map>();
+        if (verifierSandbox.isEmpty()) {
+            pending.add(new HashMap());
+        } else {
+            Iterator iterator = verifierSandbox.getIterator();
+            while (iterator.hasNext()) {
+                pending.add((Map) iterator.next());
+            }
+        }
+        for (Iterator<Map> it = pending.iterator(); it.hasNext(); ) {
+            if (AnswerCache.instance.contains(AnswerCache.key(taskHash, currentParams, it.next()))) {
+                it.remove();
+            }
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        // наборы параметров верификации обычно дают множества одного порядка, оценивается первый
+        long cost = Verifier.estimateCost(mathTemplate.instantiate(currentParams, pending.get(0)));
+        return cost > Long.MAX_VALUE / pending.size() ? Long.MAX_VALUE : cost * pending.size();
+    }
 
     public String getTitle() {
-        return task.getTitle();
+        return title;
+    }
+
+    public long getModelSize() {
+        return mathTemplate.getSize() + descriptionTemplate.getSize();
     }
 
     public ClientTask getClientTask() throws SystemException {
@@ -121,7 +278,7 @@ public class ServerTaskImpl implements ServerTask {
     public ClientTask getClientTaskWithParameters(Map parameters) throws SystemException {
         Node desc = null;
         try {
-            desc = Preprocessor.generateTask(task.getDescription(), parameters);
+            desc = descriptionTemplate.generate(parameters);
         } catch (TaskDeserializationException e) {
             throw new SystemException("Couldn't generate task because of task configuration file inconsistency \n" + e.getMessage(), e);
         }
@@ -19,10 +19,8 @@
 
 package ru.spb.ipo.engine.task;
 
-import org.xml.sax.SAXException;
 import ru.spb.ipo.engine.exception.XmlException;
 
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -38,5 +36,5 @@ public interface TaskFactory {
 
     ClientTask createClientTask(String title, String description, Map genParams, long problemId, List<String> buttons) throws XmlException, IOException;
 
-    XmlTask createXmlTask(String fileName) throws XmlException, IOException, ParserConfigurationException, SAXException;
+    XmlTask createXmlTask(String fileName) throws XmlException, IOException;
 }
@@ -0,0 +1,217 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.task;
+
+import ru.spb.ipo.engine.exception.XmlException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Читает XML задач и конфигураций за один проход StAX в неизменяемое дерево ModelNode.
+ * Фабрика создается один раз. Текст вершины - первая секция CDATA, иначе первый текстовый кусок, как в NodeImpl.
+ */
+public class TaskReader {
+
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    // без этого реализация JDK отдает CDATA как обычный текст
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    static {
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * @return корневой элемент документа, поток закрывается
+     */
+    public static Node read(InputStream is, String name) throws XmlException, IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(is);
+            Builder current = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                    if (current != null) {
+                        current.appendText(reader);
+                    }
+                    continue;
+                }
+                if (current == null && event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (event == XMLStreamConstants.CDATA) {
+                    current.appendCdata(reader);
+                    continue;
+                }
+                if (current != null) {
+                    current.flush();
+                }
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    current = new Builder(current, reader);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    ModelNode node = current.build();
+                    if (current.parent == null) {
+                        return node;
+                    }
+                    current = current.parent;
+                    current.childs.add(node);
+                }
+            }
+            throw new XmlException("Document " + name + " has no root element");
+        } catch (XMLStreamException e) {
+            throw new XmlException("Error reading " + name + ": " + e.getMessage(), e);
+        } finally {
+            close(reader, is);
+        }
+    }
+
+    /**
+     * Название задачи без разбора всего файла: читается только начало элемента task.
+     *
+     * @return null, если элемента task нет
+     */
+    public static String readTitle(InputStream is, String name) throws XmlException, IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(is);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "task".equals(reader.getLocalName())) {
+                    return reader.getAttributeValue(null, "title");
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new XmlException("Error reading " + name + ": " + e.getMessage(), e);
+        } finally {
+            close(reader, is);
+        }
+    }
+
+    private static XMLStreamReader createReader(InputStream is) throws XMLStreamException {
+        synchronized (factory) {
+            return factory.createXMLStreamReader(is);
+        }
+    }
+
+    private static void close(XMLStreamReader reader, InputStream is) throws IOException {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // поток все равно закрывается ниже
+            }
+        }
+        is.close();
+    }
+
+    private static class Builder {
+
+        private final Builder parent;
+
+        private final String name;
+
+        private final String path;
+
+        private final String[] attrNames;
+
+        private final String[] attrValues;
+
+        private final List<Node> childs = new ArrayList<Node>();
+
+        private String text;
+
+        private String cdata;
+
+        // подряд идущие события одного текстового куска
+        private StringBuilder pending;
+
+        private boolean pendingCdata;
+
+        Builder(Builder parent, XMLStreamReader reader) {
+            this.parent = parent;
+            name = reader.getLocalName();
+            path = parent == null ? name : parent.path + "/" + name;
+            int count = reader.getAttributeCount();
+            attrNames = new String[count];
+            attrValues = new String[count];
+            for (int i = 0; i < count; i++) {
+                attrNames[i] = reader.getAttributeLocalName(i);
+                attrValues[i] = reader.getAttributeValue(i);
+            }
+        }
+
+        void appendText(XMLStreamReader reader) {
+            if (pending != null && pendingCdata) {
+                flush();
+            }
+            append(reader);
+            pendingCdata = false;
+        }
+
+        void appendCdata(XMLStreamReader reader) {
+            if (pending != null && !pendingCdata) {
+                flush();
+            }
+            append(reader);
+            pendingCdata = true;
+        }
+
+        private void append(XMLStreamReader reader) {
+            if (pending == null) {
+                pending = new StringBuilder();
+            }
+            pending.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        void flush() {
+            if (pending == null) {
+                return;
+            }
+            if (pendingCdata) {
+                if (cdata == null) {
+                    cdata = pending.toString();
+                }
+            } else if (text == null) {
+                text = pending.toString();
+            }
+            pending = null;
+        }
+
+        ModelNode build() {
+            flush();
+            List<Node> list = childs.isEmpty() ? Collections.<Node>emptyList() : childs;
+            return new ModelNode(name, path, attrNames, attrValues, cdata != null ? cdata : text, list);
+        }
+    }
+}
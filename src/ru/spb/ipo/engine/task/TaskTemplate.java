@@ -0,0 +1,314 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.task;
+
+import ru.spb.ipo.engine.exception.XmlException;
+import ru.spb.ipo.engine.utils.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Разобранное один раз математическое описание задачи. Подстановки ${name} в тексте и атрибутах
+ * заранее разбиты на куски, поэтому instantiate не копирует DOM и не компилирует регулярные выражения:
+ * создаются только вершины с подставленными значениями, макросы for раскрываются по ходу.
+ * Раскрытые вершины добавляются в конец списка детей родителя.
+ */
+public class TaskTemplate {
+
+    private static final String FOR = "for";
+
+    private final String name;
+
+    private final String path;
+
+    private final String[] attrNames;
+
+    private final Text[] attrValues;
+
+    private final Text text;
+
+    private final TaskTemplate[] childs;
+
+    private TaskTemplate(Node node, String parentPath) {
+        name = node.getNodeName();
+        path = parentPath == null ? name : parentPath + "/" + name;
+        Map<String, Node> attrs = node.getAttrs();
+        int size = attrs == null ? 0 : attrs.size();
+        attrNames = new String[size];
+        attrValues = new Text[size];
+        if (attrs != null) {
+            int i = 0;
+            for (Map.Entry<String, Node> attr : attrs.entrySet()) {
+                attrNames[i] = attr.getKey();
+                attrValues[i] = Text.compile(attr.getValue().getText());
+                i++;
+            }
+        }
+        text = Text.compile(node.getText());
+        List<TaskTemplate> list = new ArrayList<TaskTemplate>();
+        for (Node child : node.getChilds(null)) {
+            if (!child.getNodeName().startsWith("#")) {
+                list.add(new TaskTemplate(child, path));
+            }
+        }
+        childs = list.toArray(new TaskTemplate[list.size()]);
+    }
+
+    /**
+     * Оценка занимаемой памяти в байтах: заголовки объектов, ссылки и символы строк.
+     */
+    public long getSize() {
+        long size = 64 + 8 * attrNames.length + 8 * childs.length + stringSize(path) + text.getSize();
+        for (int i = 0; i < attrNames.length; i++) {
+            size += stringSize(attrNames[i]) + attrValues[i].getSize();
+        }
+        for (TaskTemplate child : childs) {
+            size += child.getSize();
+        }
+        return size;
+    }
+
+    private static long stringSize(String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+
+    public static TaskTemplate compile(Node node) {
+        return new TaskTemplate(node, null);
+    }
+
+    /**
+     * @param genParams      параметры условия, имеют приоритет над остальными
+     * @param verifierParams параметры верификации, перекрываются индексами циклов for
+     */
+    public Node instantiate(Map genParams, Map verifierParams) throws XmlException {
+        return bind(new Bindings(genParams, verifierParams), true);
+    }
+
+    /**
+     * Подстановка без раскрытия макросов, как Preprocessor.generateTask.
+     */
+    public Node generate(Map parameters) throws XmlException {
+        return bind(new Bindings(parameters, Collections.EMPTY_MAP), false);
+    }
+
+    private ModelNode bind(Bindings bindings, boolean expandMacros) throws XmlException {
+        String[] values = new String[attrNames.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = attrValues[i].bind(bindings);
+        }
+        List<Node> list;
+        if (childs.length == 0) {
+            list = Collections.emptyList();
+        } else {
+            list = new ArrayList<Node>(childs.length);
+            List<Node> expanded = null;
+            for (TaskTemplate child : childs) {
+                if (expandMacros && FOR.equals(child.name)) {
+                    if (expanded == null) {
+                        expanded = new ArrayList<Node>();
+                    }
+                    child.expand(bindings, expanded);
+                } else {
+                    list.add(child.bind(bindings, expandMacros));
+                }
+            }
+            if (expanded != null) {
+                list.addAll(expanded);
+            }
+        }
+        return new ModelNode(name, path, attrNames, values, text.bind(bindings), list);
+    }
+
+    private void expand(Bindings bindings, List<Node> result) throws XmlException {
+        String index = null;
+        String first = null;
+        String last = null;
+        String inc = null;
+        for (int i = 0; i < attrNames.length; i++) {
+            String value = attrValues[i].bind(bindings);
+            if ("name".equals(attrNames[i])) {
+                index = value;
+            } else if ("first".equals(attrNames[i])) {
+                first = value;
+            } else if ("last".equals(attrNames[i])) {
+                last = value;
+            } else if ("inc".equals(attrNames[i])) {
+                inc = value;
+            }
+        }
+        ModelNode self = new ModelNode(name, path, attrNames, new String[attrNames.length], null, Collections.<Node>emptyList());
+        Parser parser = new Parser();
+        int from = parser.parse(required(self, "first", first)).getBigInteger().intValue();
+        int to = parser.parse(required(self, "last", last)).getBigInteger().intValue();
+        int step = parser.parse(required(self, "inc", inc)).getBigInteger().intValue();
+        if (step == 0) {
+            step = 1;
+        }
+        required(self, "name", index);
+        for (int i = from; i <= to; i += step) {
+            bindings.push(index, String.valueOf(i));
+            for (TaskTemplate child : childs) {
+                if (FOR.equals(child.name)) {
+                    child.expand(bindings, result);
+                } else {
+                    result.add(child.bind(bindings, true));
+                }
+            }
+            bindings.pop();
+        }
+    }
+
+    private static String required(ModelNode node, String attr, String value) throws XmlException {
+        if (value == null) {
+            // бросает ParameterNotSetException с путем к вершине
+            node.getAttr(attr);
+        }
+        return value;
+    }
+
+    /**
+     * Значения параметров: сначала параметры условия, затем индексы циклов (внутренний раньше внешнего),
+     * затем параметры верификации.
+     */
+    private static class Bindings {
+
+        private final Map genParams;
+
+        private final Map verifierParams;
+
+        private String[] names = new String[4];
+
+        private String[] values = new String[4];
+
+        private int depth;
+
+        Bindings(Map genParams, Map verifierParams) {
+            this.genParams = genParams;
+            this.verifierParams = verifierParams;
+        }
+
+        void push(String name, String value) {
+            if (depth == names.length) {
+                String[] newNames = new String[depth * 2];
+                String[] newValues = new String[depth * 2];
+                System.arraycopy(names, 0, newNames, 0, depth);
+                System.arraycopy(values, 0, newValues, 0, depth);
+                names = newNames;
+                values = newValues;
+            }
+            names[depth] = name;
+            values[depth] = value;
+            depth++;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        String get(String name) {
+            Object value = genParams.get(name);
+            if (value != null) {
+                return value.toString();
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                if (names[i].equals(name)) {
+                    return values[i];
+                }
+            }
+            value = verifierParams.get(name);
+            return value == null ? null : value.toString();
+        }
+    }
+
+    /**
+     * Строка, разбитая на постоянные куски (четные индексы) и имена параметров (нечетные).
+     */
+    private static class Text {
+
+        private static final Text NULL = new Text(null, null);
+
+        private final String constant;
+
+        private final String[] parts;
+
+        private Text(String constant, String[] parts) {
+            this.constant = constant;
+            this.parts = parts;
+        }
+
+        static Text compile(String s) {
+            if (s == null) {
+                return NULL;
+            }
+            List<String> parts = new ArrayList<String>();
+            int from = 0;
+            int start = s.indexOf("${");
+            while (start >= 0) {
+                int end = s.indexOf('}', start + 2);
+                if (end < 0) {
+                    break;
+                }
+                parts.add(s.substring(from, start));
+                parts.add(s.substring(start + 2, end));
+                from = end + 1;
+                start = s.indexOf("${", from);
+            }
+            if (parts.isEmpty()) {
+                return new Text(s, null);
+            }
+            parts.add(s.substring(from));
+            return new Text(null, parts.toArray(new String[parts.size()]));
+        }
+
+        long getSize() {
+            if (parts == null) {
+                return stringSize(constant);
+            }
+            long size = 16 + 8 * parts.length;
+            for (String part : parts) {
+                size += stringSize(part);
+            }
+            return size;
+        }
+
+        String bind(Bindings bindings) {
+            if (parts == null) {
+                return constant;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < parts.length; i++) {
+                if (i % 2 == 0) {
+                    sb.append(parts[i]);
+                } else {
+                    String value = bindings.get(parts[i]);
+                    if (value != null) {
+                        sb.append(value);
+                    } else {
+                        sb.append("${").append(parts[i]).append('}');
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
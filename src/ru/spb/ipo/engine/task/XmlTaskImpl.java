@@ -19,12 +19,9 @@
 
 package ru.spb.ipo.engine.task;
 
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
+import ru.spb.ipo.engine.exception.XmlException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -34,32 +31,59 @@ import java.io.IOException;
  */
 public class XmlTaskImpl implements XmlTask {
 
-    private Document document;
+    private String title;
 
-    public XmlTaskImpl(String fileName) throws ParserConfigurationException, IOException, SAXException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder parser = factory.newDocumentBuilder();
-        document = parser.parse(fileName);
+    private Node mathDescription;
+
+    private Node description;
+
+    private Node descriptionParams;
+
+    private Node verifierParams;
+
+    public XmlTaskImpl(String fileName) throws IOException, XmlException {
+        Node root = TaskReader.read(new FileInputStream(fileName), fileName);
+        title = root.getAttrIfExists("title", "");
+        mathDescription = find(root, MATH_DESCRIPTION);
+        description = find(root, DESCRIPTION);
+        descriptionParams = find(root, DESCRIPTION_PARAMS);
+        verifierParams = find(root, VERIFIER_PARAMS);
+    }
+
+    /**
+     * Первая в порядке документа вершина с таким именем, как getElementsByTagName.
+     */
+    private static Node find(Node node, String name) {
+        for (Node child : node.getChilds(null)) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+            Node result = find(child, name);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
     }
 
     public Node getMathDescription() {
-        return new NodeImpl(document.getElementsByTagName(MATH_DESCRIPTION).item(0));
+        return mathDescription;
     }
 
     public Node getDescription() {
-        return new NodeImpl(document.getElementsByTagName(DESCRIPTION).item(0));
+        return description;
     }
 
     public String getTitle() {
-        return document.getDocumentElement().getAttribute("title");
+        return title;
     }
 
     public Node getDesriptionParams() {
-        return new NodeImpl(document.getElementsByTagName(DESCRIPTION_PARAMS).item(0));
+        return descriptionParams;
     }
 
     public Node getVerifierParams() {
-        return new NodeImpl(document.getElementsByTagName(VERIFIER_PARAMS).item(0));
+        return verifierParams;
     }
 
 
@@ -24,6 +24,7 @@ import ru.spb.ipo.engine.utils.file.FileAccessor;
 import ru.spb.ipo.engine.utils.file.OfflineFileAccessor;
 
 import javax.swing.*;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -55,6 +56,10 @@ public class FileAccessUtil {
         return accessor.getIcon(fileName);
     }
 
+    public static File getLocalFile(String fileName) {
+        return accessor.getLocalFile(fileName);
+    }
+
     public static boolean isApplet() {
         return isApplet;
     }
@@ -19,57 +19,213 @@
 
 package ru.spb.ipo.engine.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.math.BigInteger;
 
-public class FractionalNumber implements Comparable {
+/**
+ * Несократимая дробь со знаменателем больше нуля. Пока числитель и знаменатель помещаются в long,
+ * вычисления идут в long, при переполнении - в BigInteger. Объекты не изменяются.
+ */
+public class FractionalNumber implements Comparable, java.io.Serializable {
+
+    private static final long serialVersionUID = 3400483496416523505L;
+
+    // сериализуется в прежнем виде, чтобы читались сохраненные кэши ответов
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("numerator", BigInteger.class),
+            new ObjectStreamField("denominator", BigInteger.class)
+    };
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+    private static final int CACHE_LOW = -128;
+
+    private static final FractionalNumber[] cache = new FractionalNumber[1024 - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < cache.length; i++) {
+            FractionalNumber number = new FractionalNumber();
+            number.numerator = i + CACHE_LOW;
+            cache[i] = number;
+        }
+    }
 
-    private BigInteger numerator;
+    public static final FractionalNumber ZERO = valueOf(0);
 
-    private BigInteger denominator;
+    public static final FractionalNumber ONE = valueOf(1);
+
+    private long numerator;
+
+    private long denominator = 1;
+
+    // не null, только если дробь не помещается в long
+    private BigInteger bigNumerator;
+
+    private BigInteger bigDenominator;
+
+    private FractionalNumber() {
+    }
 
     public FractionalNumber(BigInteger numerator) {
         this(numerator, BigInteger.ONE);
     }
 
     public FractionalNumber(int numerator) {
-        this(BigInteger.valueOf(numerator));
+        this.numerator = numerator;
     }
 
     public FractionalNumber(int numerator, int denominator) {
-        this(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        if (denominator == 0) throw new IllegalArgumentException("Denominator must be none zero");
+        set(numerator, denominator);
     }
 
     public FractionalNumber(BigInteger numerator, BigInteger denominator) {
-        if (denominatorIsZero()) throw new IllegalArgumentException("Denominator must be none zero");
-        this.numerator = numerator;
-        this.denominator = denominator;
-        normalize();
+        if (denominator.signum() == 0) throw new IllegalArgumentException("Denominator must be none zero");
+        set(numerator, denominator);
+    }
+
+    public static FractionalNumber valueOf(long value) {
+        if (value >= CACHE_LOW && value < CACHE_LOW + cache.length) {
+            return cache[(int) value - CACHE_LOW];
+        }
+        FractionalNumber number = new FractionalNumber();
+        number.numerator = value;
+        return number;
+    }
+
+    public static FractionalNumber valueOf(long numerator, long denominator) {
+        if (denominator == 1) {
+            return valueOf(numerator);
+        }
+        if (denominator == 0) throw new IllegalArgumentException("Denominator must be none zero");
+        FractionalNumber number = new FractionalNumber();
+        number.set(numerator, denominator);
+        return number;
+    }
+
+    private static FractionalNumber valueOf(BigInteger numerator, BigInteger denominator) {
+        if (denominator.equals(BigInteger.ONE) && numerator.bitLength() < 64) {
+            return valueOf(numerator.longValue());
+        }
+        FractionalNumber number = new FractionalNumber();
+        number.set(numerator, denominator);
+        return number;
+    }
+
+    private void set(long n, long d) {
+        if (d < 0) {
+            if (n == Long.MIN_VALUE || d == Long.MIN_VALUE) {
+                set(BigInteger.valueOf(n), BigInteger.valueOf(d));
+                return;
+            }
+            n = -n;
+            d = -d;
+        }
+        if (n == Long.MIN_VALUE) {
+            set(LONG_MIN, BigInteger.valueOf(d));
+            return;
+        }
+        long g = gcd(Math.abs(n), d);
+        numerator = n / g;
+        denominator = d / g;
+    }
+
+    private void set(BigInteger n, BigInteger d) {
+        if (d.signum() == -1) {
+            n = n.negate();
+            d = d.negate();
+        }
+        BigInteger g = n.gcd(d);
+        if (!g.equals(BigInteger.ONE)) {
+            n = n.divide(g);
+            d = d.divide(g);
+        }
+        if (n.bitLength() < 64 && d.bitLength() < 64) {
+            numerator = n.longValue();
+            denominator = d.longValue();
+            bigNumerator = null;
+            bigDenominator = null;
+        } else {
+            bigNumerator = n;
+            bigDenominator = d;
+        }
     }
 
+    private static long gcd(long a, long b) {
+        while (a != 0) {
+            long t = b % a;
+            b = a;
+            a = t;
+        }
+        return b;
+    }
+
+    private boolean isBig() {
+        return bigNumerator != null;
+    }
 
     public FractionalNumber add(FractionalNumber number) {
-        BigInteger newNumerator = numerator.multiply(number.denominator).add(denominator.multiply(number.numerator));
-        BigInteger newDenominator = denominator.multiply(number.denominator);
-        return normalize(newNumerator, newDenominator);
+        if (!isBig() && !number.isBig()) {
+            try {
+                if (denominator == 1 && number.denominator == 1) {
+                    return valueOf(Math.addExact(numerator, number.numerator));
+                }
+                return valueOf(Math.addExact(Math.multiplyExact(numerator, number.denominator), Math.multiplyExact(denominator, number.numerator)),
+                        Math.multiplyExact(denominator, number.denominator));
+            } catch (ArithmeticException e) {
+                // переполнение - считаем в BigInteger
+            }
+        }
+        BigInteger newNumerator = getNumerator().multiply(number.getDenominator()).add(getDenominator().multiply(number.getNumerator()));
+        BigInteger newDenominator = getDenominator().multiply(number.getDenominator());
+        return valueOf(newNumerator, newDenominator);
     }
 
     public FractionalNumber multiply(FractionalNumber number) {
-        BigInteger newNumerator = numerator.multiply(number.numerator);
-        BigInteger newDenominator = denominator.multiply(number.denominator);
-        return normalize(newNumerator, newDenominator);
+        if (!isBig() && !number.isBig()) {
+            try {
+                return valueOf(Math.multiplyExact(numerator, number.numerator), Math.multiplyExact(denominator, number.denominator));
+            } catch (ArithmeticException e) {
+                // переполнение - считаем в BigInteger
+            }
+        }
+        BigInteger newNumerator = getNumerator().multiply(number.getNumerator());
+        BigInteger newDenominator = getDenominator().multiply(number.getDenominator());
+        return valueOf(newNumerator, newDenominator);
     }
 
     public FractionalNumber divide(FractionalNumber number) {
         if (number.isZero()) throw new IllegalArgumentException("number must be not zero");
-        BigInteger newNumerator = numerator.multiply(number.denominator);
-        BigInteger newDenominator = denominator.multiply(number.numerator);
-        return normalize(newNumerator, newDenominator);
+        if (!isBig() && !number.isBig()) {
+            try {
+                return valueOf(Math.multiplyExact(numerator, number.denominator), Math.multiplyExact(denominator, number.numerator));
+            } catch (ArithmeticException e) {
+                // переполнение - считаем в BigInteger
+            }
+        }
+        BigInteger newNumerator = getNumerator().multiply(number.getDenominator());
+        BigInteger newDenominator = getDenominator().multiply(number.getNumerator());
+        return valueOf(newNumerator, newDenominator);
     }
 
     public FractionalNumber substract(FractionalNumber number) {
-        BigInteger newNumerator = numerator.multiply(number.denominator).subtract(denominator.multiply(number.numerator));
-        BigInteger newDenominator = denominator.multiply(number.denominator);
-        return normalize(newNumerator, newDenominator);
+        if (!isBig() && !number.isBig()) {
+            try {
+                if (denominator == 1 && number.denominator == 1) {
+                    return valueOf(Math.subtractExact(numerator, number.numerator));
+                }
+                return valueOf(Math.subtractExact(Math.multiplyExact(numerator, number.denominator), Math.multiplyExact(denominator, number.numerator)),
+                        Math.multiplyExact(denominator, number.denominator));
+            } catch (ArithmeticException e) {
+                // переполнение - считаем в BigInteger
+            }
+        }
+        BigInteger newNumerator = getNumerator().multiply(number.getDenominator()).subtract(getDenominator().multiply(number.getNumerator()));
+        BigInteger newDenominator = getDenominator().multiply(number.getDenominator());
+        return valueOf(newNumerator, newDenominator);
     }
 
     public FractionalNumber pow(FractionalNumber power) {
@@ -78,67 +234,57 @@ public class FractionalNumber implements Comparable {
     }
 
     public FractionalNumber pow(BigInteger power) {
-        BigInteger myPower = power;
-        return normalize(numerator.pow(myPower.intValue()), denominator.pow(myPower.intValue()));
-    }
-
-    public BigInteger getDenominator() {
-        return denominator;
+        int myPower = power.intValue();
+        if (myPower < 0) throw new ArithmeticException("Negative exponent");
+        if (!isBig()) {
+            try {
+                return valueOf(pow(numerator, myPower), pow(denominator, myPower));
+            } catch (ArithmeticException e) {
+                // переполнение - считаем в BigInteger
+            }
+        }
+        return valueOf(getNumerator().pow(myPower), getDenominator().pow(myPower));
     }
 
-    public void setNumerator(BigInteger numerator) {
-        this.numerator = numerator;
+    private static long pow(long base, int power) {
+        long result = 1;
+        while (power > 0) {
+            if ((power & 1) != 0) {
+                result = Math.multiplyExact(result, base);
+            }
+            power >>= 1;
+            if (power > 0) {
+                base = Math.multiplyExact(base, base);
+            }
+        }
+        return result;
     }
 
-    private FractionalNumber normalize(BigInteger newNumerator, BigInteger newDenominator) {
-        //BigInteger generalDivisor = euclid(newNumerator, newDenominator);
-        return new FractionalNumber(newNumerator, newDenominator);
+    public BigInteger getNumerator() {
+        return isBig() ? bigNumerator : BigInteger.valueOf(numerator);
     }
 
-    private void normalize() {
-        //make denominator always positive
-        if (denominator.signum() == -1) {
-            numerator = BigInteger.ZERO.subtract(numerator);
-            denominator = BigInteger.ZERO.subtract(denominator);
-        }
-
-        BigInteger generalDivisor = numerator.gcd(denominator);
-//        BigInteger generalDivisor = euclid(numerator, denominator);
-        numerator = numerator.divide(generalDivisor);
-        denominator = denominator.divide(generalDivisor);
+    public BigInteger getDenominator() {
+        return isBig() ? bigDenominator : BigInteger.valueOf(denominator);
     }
 
-
     public BigInteger getBigInteger() {
-        normalize();
-        if (!BigInteger.ONE.equals(denominator)) {
+        if (isBig() ? !BigInteger.ONE.equals(bigDenominator) : denominator != 1) {
             throw new RuntimeException("Cannot cast this number to BigInteger");
         }
-        return numerator;
+        return getNumerator();
     }
 
     public BigInteger round() {
-        normalize();
-        return numerator.divide(denominator);
+        return isBig() ? bigNumerator.divide(bigDenominator) : BigInteger.valueOf(numerator / denominator);
     }
 
     public String toString() {
-        normalize();
-        return numerator + "/" + denominator;
-    }
-
-    private boolean denominatorIsZero() {
-        if (BigInteger.ZERO.equals(denominator)) {
-            return true;
-        }
-        return false;
+        return isBig() ? bigNumerator + "/" + bigDenominator : numerator + "/" + denominator;
     }
 
     public boolean isZero() {
-        if (BigInteger.ZERO.equals(numerator)) {
-            return true;
-        }
-        return false;
+        return !isBig() && numerator == 0;
     }
 
     public boolean equals(Object o) {
@@ -146,18 +292,10 @@ public class FractionalNumber implements Comparable {
             return false;
         }
         FractionalNumber number = (FractionalNumber) o;
-        number.normalize();
-        this.normalize();
-        if (numerator.equals(number.getNumerator()) && denominator.equals(number.getDenominator())) {
-            return true;
+        if (isBig() || number.isBig()) {
+            return isBig() && number.isBig() && bigNumerator.equals(number.bigNumerator) && bigDenominator.equals(number.bigDenominator);
         }
-        return false;
-    }
-    //TODO implements equals(), hash()
-
-
-    public BigInteger getNumerator() {
-        return numerator;
+        return numerator == number.numerator && denominator == number.denominator;
     }
 
     public int compareTo(Object o) {
@@ -165,10 +303,37 @@ public class FractionalNumber implements Comparable {
             return -1;
         }
         FractionalNumber oth = (FractionalNumber) o;
-        return numerator.multiply(oth.getDenominator()).compareTo(denominator.multiply(oth.getNumerator()));
+        if (!isBig() && !oth.isBig()) {
+            if (denominator == oth.denominator) {
+                return numerator < oth.numerator ? -1 : (numerator == oth.numerator ? 0 : 1);
+            }
+            try {
+                long left = Math.multiplyExact(numerator, oth.denominator);
+                long right = Math.multiplyExact(denominator, oth.numerator);
+                return left < right ? -1 : (left == right ? 0 : 1);
+            } catch (ArithmeticException e) {
+                // переполнение - сравниваем в BigInteger
+            }
+        }
+        return getNumerator().multiply(oth.getDenominator()).compareTo(getDenominator().multiply(oth.getNumerator()));
     }
 
     public int hashCode() {
-        return numerator.hashCode() / 2 + denominator.hashCode() / 2;
+        if (isBig()) {
+            return bigNumerator.hashCode() * 31 + bigDenominator.hashCode();
+        }
+        return (int) (numerator ^ (numerator >>> 32)) * 31 + (int) (denominator ^ (denominator >>> 32));
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("numerator", getNumerator());
+        fields.put("denominator", getDenominator());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        set((BigInteger) fields.get("numerator", null), (BigInteger) fields.get("denominator", null));
     }
 }
@@ -20,51 +20,275 @@
 package ru.spb.ipo.engine.utils;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 public class MathOperations {
 
-    public static BigInteger combination(long n, long k) {
+    // строки треугольника Паскаля, в которых все C(n, k) помещаются в long
+    private static final int PASCAL_ROWS = 67;
 
-        if ((k == 0) || (k == n)) return BigInteger.valueOf(1);
-        if (k > n) return BigInteger.valueOf(0);
-        if ((k < 0) || (n <= 0)) return BigInteger.valueOf(0);
+    // n! для n <= 20, дальше не помещается в long
+    private static final long[] LONG_FACTORIALS = new long[21];
 
-        long a;
-        long b;
-        if (k > n - k) {
-            a = k;
-            b = n - k;
-        } else {
-            a = n - k;
-            b = k;
-        }
+    // размер таблицы факториалов в BigInteger
+    private static final int FACTORIALS = 1024;
 
-        BigInteger bi = BigInteger.valueOf(a + 1);
-        for (long i = a + 2; i <= n; i++) {
-            bi = bi.multiply(BigInteger.valueOf(i));
+    private static volatile long[][] pascal = new long[0][];
+
+    private static volatile BigInteger[] factorials = new BigInteger[0];
+
+    static {
+        LONG_FACTORIALS[0] = 1;
+        for (int i = 1; i < LONG_FACTORIALS.length; i++) {
+            LONG_FACTORIALS[i] = LONG_FACTORIALS[i - 1] * i;
         }
+    }
 
-        for (long i = 2; i <= b; i++) {
-            bi = bi.divide(BigInteger.valueOf(i));
+    public static BigInteger combination(long n, long k) {
+        try {
+            return BigInteger.valueOf(combinationLong(n, k));
+        } catch (ArithmeticException e) {
+            // не помещается в long
+        }
+        if (k > n - k) {
+            k = n - k;
+        }
+        BigInteger bi = BigInteger.ONE;
+        for (long i = 1; i <= k; i++) {
+            bi = bi.multiply(BigInteger.valueOf(n - k + i)).divide(BigInteger.valueOf(i));
         }
         return bi;
     }
 
+    /**
+     * То же, что combination, в long. Если значение не помещается в long, бросает ArithmeticException.
+     */
+    public static long combinationLong(long n, long k) {
+        if ((k == 0) || (k == n)) return 1;
+        if (k > n) return 0;
+        if ((k < 0) || (n <= 0)) return 0;
+        if (n < PASCAL_ROWS) {
+            return pascalRow((int) n)[(int) k];
+        }
+        if (k > n - k) {
+            k = n - k;
+        }
+        // после шага i в result лежит C(n - k + i, i), поэтому деление нацело
+        long result = 1;
+        for (long i = 1; i <= k; i++) {
+            long g = gcd(result, i);
+            result = Math.multiplyExact(result / g, (n - k + i) / (i / g));
+        }
+        return result;
+    }
+
     public static BigInteger layout(long n, long k) {
         if (n < k) return BigInteger.valueOf(0);
         if ((n <= 0) || (k <= 0)) return BigInteger.valueOf(0);
-        BigInteger bi;
-        if (k == n) bi = BigInteger.valueOf(1);
-        else bi = BigInteger.valueOf(n - k + 1);
+        if (k == n) return factorial(n);
+        long product = n - k + 1;
+        long i = n - k + 2;
+        for (; i <= n && product <= Long.MAX_VALUE / i; i++) {
+            product *= i;
+        }
+        BigInteger bi = BigInteger.valueOf(product);
+        for (; i <= n; i++) {
+            bi = bi.multiply(BigInteger.valueOf(i));
+        }
+        return bi;
+    }
 
-        for (long i = n - k + 2; i <= n; i++) {
+    /**
+     * n! (для n <= 0 равен нулю, как layout(n, n)).
+     */
+    public static BigInteger factorial(long n) {
+        if (n <= 0) return BigInteger.ZERO;
+        if (n < LONG_FACTORIALS.length) return BigInteger.valueOf(LONG_FACTORIALS[(int) n]);
+        if (n < FACTORIALS) return factorialTable((int) n)[(int) n];
+        BigInteger bi = factorialTable(FACTORIALS - 1)[FACTORIALS - 1];
+        for (long i = FACTORIALS; i <= n; i++) {
             bi = bi.multiply(BigInteger.valueOf(i));
         }
+        return bi;
+    }
+
+    /**
+     * То же, что factorial, в long. Для n > 20 бросает ArithmeticException.
+     */
+    public static long factorialLong(int n) {
+        if (n <= 0) return 0;
+        if (n >= LONG_FACTORIALS.length) throw new ArithmeticException("long overflow");
+        return LONG_FACTORIALS[n];
+    }
 
+    /**
+     * Мультиномиальный коэффициент - число перестановок мультимножества, где i-й элемент
+     * повторяется counts[i] раз: (counts[0] + ... + counts[m - 1])! / (counts[0]! * ... * counts[m - 1]!).
+     */
+    public static BigInteger multinomial(int[] counts) {
+        try {
+            return BigInteger.valueOf(multinomialLong(counts));
+        } catch (ArithmeticException e) {
+            // не помещается в long
+        }
+        BigInteger bi = BigInteger.ONE;
+        long n = 0;
+        for (int count : counts) {
+            n += count;
+            bi = bi.multiply(combination(n, count));
+        }
         return bi;
     }
 
-    public static BigInteger factorial(long n) {
-        return layout(n, n);
+    /**
+     * То же, что multinomial, в long. Если значение не помещается в long, бросает ArithmeticException.
+     */
+    public static long multinomialLong(int[] counts) {
+        long result = 1;
+        long n = 0;
+        for (int count : counts) {
+            n += count;
+            result = Math.multiplyExact(result, combinationLong(n, count));
+        }
+        return result;
+    }
+
+    private static long[] pascalRow(int n) {
+        long[][] rows = pascal;
+        if (n >= rows.length) {
+            rows = growPascal(n);
+        }
+        return rows[n];
+    }
+
+    private static synchronized long[][] growPascal(int n) {
+        long[][] rows = pascal;
+        if (n < rows.length) {
+            return rows;
+        }
+        int size = Math.min(PASCAL_ROWS, Math.max(n + 1, rows.length * 2));
+        long[][] grown = Arrays.copyOf(rows, size);
+        for (int i = rows.length; i < size; i++) {
+            long[] row = new long[i + 1];
+            row[0] = 1;
+            row[i] = 1;
+            for (int j = 1; j < i; j++) {
+                row[j] = grown[i - 1][j - 1] + grown[i - 1][j];
+            }
+            grown[i] = row;
+        }
+        pascal = grown;
+        return grown;
+    }
+
+    private static BigInteger[] factorialTable(int n) {
+        BigInteger[] table = factorials;
+        if (n >= table.length) {
+            table = growFactorials(n);
+        }
+        return table;
+    }
+
+    private static synchronized BigInteger[] growFactorials(int n) {
+        BigInteger[] table = factorials;
+        if (n < table.length) {
+            return table;
+        }
+        int size = Math.min(FACTORIALS, Math.max(n + 1, table.length * 2));
+        BigInteger[] grown = Arrays.copyOf(table, size);
+        for (int i = table.length; i < size; i++) {
+            grown[i] = i == 0 ? BigInteger.ONE : grown[i - 1].multiply(BigInteger.valueOf(i));
+        }
+        factorials = grown;
+        return grown;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Восстанавливает сочетание из k элементов множества {1..n} по его номеру rank (с 0)
+     * в лексикографическом порядке. Результат записывается в combination.
+     */
+    public static void unrankCombination(long n, int k, long rank, int[] combination) {
+        int x = 1;
+        for (int i = 0; i < k; i++) {
+            long count = combinationLong(n - x, k - i - 1);
+            while (count <= rank) {
+                rank -= count;
+                x++;
+                count = combinationLong(n - x, k - i - 1);
+            }
+            combination[i] = x++;
+        }
+    }
+
+    /**
+     * Номер (с 0) возрастающего сочетания combination элементов {1..n} в лексикографическом порядке.
+     */
+    public static long rankCombination(long n, int[] combination) {
+        int k = combination.length;
+        long rank = 0;
+        int prev = 0;
+        for (int i = 0; i < k; i++) {
+            for (int x = prev + 1; x < combination[i]; x++) {
+                rank += combinationLong(n - x, k - i - 1);
+            }
+            prev = combination[i];
+        }
+        return rank;
+    }
+
+    /**
+     * Восстанавливает перестановку чисел {1..k} по ее номеру rank (с 0) в лексикографическом порядке
+     * (код Лемера).
+     */
+    public static void unrankPermutation(int k, long rank, int[] permutation) {
+        boolean[] used = new boolean[k + 1];
+        for (int i = 0; i < k; i++) {
+            long f = permutationCount(k - i - 1);
+            int digit = (int) (rank / f);
+            rank = rank % f;
+            int x = 0;
+            while (digit >= 0) {
+                x++;
+                if (!used[x]) {
+                    digit--;
+                }
+            }
+            used[x] = true;
+            permutation[i] = x;
+        }
+    }
+
+    /**
+     * Число перестановок n элементов (в отличие от factorial, для n = 0 равно 1).
+     */
+    private static long permutationCount(int n) {
+        return n <= 1 ? 1 : factorialLong(n);
+    }
+
+    /**
+     * Номер (с 0) перестановки чисел {1..k} в лексикографическом порядке.
+     */
+    public static long rankPermutation(int[] permutation) {
+        int k = permutation.length;
+        long rank = 0;
+        for (int i = 0; i < k; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < k; j++) {
+                if (permutation[j] < permutation[i]) {
+                    smaller++;
+                }
+            }
+            rank += smaller * permutationCount(k - i - 1);
+        }
+        return rank;
     }
 }
@@ -16,142 +16,53 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package ru.spb.ipo.engine.utils;
 
 import ru.spb.ipo.engine.exception.UserAnswerParseException;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Stack;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
+/**
+ * Разбор арифметических выражений. Выражение один раз переводится в польскую запись
+ * (программу для стекового вычислителя), программы кэшируются по тексту выражения.
+ * Вычисление идет в long, при переполнении выражение пересчитывается через BigInteger.
+ * Размер чисел ограничен (MAX_BITS): ответ пользователя разбирается в потоке проверки,
+ * поэтому "99999!", "2^9999999" или "C(2000000000,1000000000)" отклоняются, а не вычисляются.
+ */
 public class Parser {
 
-    private Stack stack;
-    private String exps;
-    private ArrayList pol;
+    private static final char termO = '(';
+    private static final char termC = ')';
+    private static final char termM = '*';
+    private static final char termD = '/';
+    private static final char termA = '+';
+    private static final char termS = '-';
+    private static final char termP = '^';
+    private static final char termF = '!';
 
-    private static String termO = "(";
-    private static String termC = ")";
-    private static String termM = "*";
-    private static String termD = "/";
-    private static String termA = "+";
-    private static String termS = "-";
-    private static String termP = "^";
-    private static String termF = "!";
+    // коды операций в программе, неотрицательный код - номер константы
+    private static final int ADD = -1;
+    private static final int SUB = -2;
+    private static final int MUL = -3;
+    private static final int DIV = -4;
+    private static final int POW = -5;
+    private static final int FACT = -6;
 
-    private static TreeSet terms = new TreeSet(Arrays.asList(new Object[]{termO, termC, termM, termD, termA, termS, termP, termF}));
-    private int k;
+    private static final int MAX_PROGRAMS = 4096;
 
-    public Parser() {
-        stack = new Stack();
-        pol = new ArrayList();
-    }
+    // наибольшая длина числителя и знаменателя в битах (около 19700 десятичных цифр)
+    private static final int MAX_BITS = 1 << 16;
 
-    /**
-     * Вставляет нули перед унарным минусом.
-     *
-     * @param sb
-     */
-    private static StringBuffer preParse(StringBuffer sb) {
-        int i = 0;
-        while (i < sb.length()) {
-            if ((sb.charAt(i) == termS.charAt(0)) && ((i == 0) || (sb.charAt(i - 1) == termO.charAt(0)))) {
-                sb = sb.insert(i, '0');
-                i++;
-            }
-            i++;
-        }
-        return sb;
-    }
+    // 5000! занимает около 54000 бит
+    private static final int MAX_FACTORIAL = 5000;
 
-    private void rebuildExps() {
-        k = 0;
-        StringBuffer sbi = new StringBuffer(exps);
-        sbi = preParse(sbi);
-        //System.out.println(sbi);
-        while (k < sbi.length()) {
-            String term = getTerm(sbi);
-
-            if (termC.equals(term)) {
-                String str = null;
-                do {
-                    str = (String) stack.pop();
-                    if (!termO.equals(str)) pol.add(str);
-                } while (!termO.equals(str));
-            }
-
-            if (isNumber(term)) {
-                pol.add(term);
-            }
-
-            if (isFunction(term)) {
-                BigInteger[] abi = getParameters(sbi);
-                if ("C".equals(term.toUpperCase())) {
-                    pol.add(MathOperations.combination(abi[0].longValue(), abi[1].longValue()).toString());
-                }
-
-                if ("A".equals(term.toUpperCase())) {
-                    pol.add(MathOperations.layout(abi[0].longValue(), abi[1].longValue()).toString());
-                }
-            }
-
-            if (termO.equals(term)) {
-                stack.push(termO);
-            }
+    private static final ConcurrentMap<String, Program> programs = new ConcurrentHashMap<String, Program>();
 
-            if ((k + 1 <= sbi.length()) && isOperation(sbi.substring(k, k + 1))) {
-                if (stack.size() == 0) stack.push(sbi.substring(k, k + 1));
-                else {
-                    String c = sbi.substring(k, k + 1);
-                    String stemp = (String) stack.pop();
-                    if (getPrior(c) > getPrior(stemp)) {
-                        stack.push(stemp);
-                        stack.push(c);
-                    } else {
-                        while ((stemp != null) && (getPrior(c) <= getPrior(stemp))) {
-                            pol.add(stemp);
-                            if (stack.size() != 0)
-                                stemp = (String) stack.pop();
-                            else stemp = null;
-                        }
-                        if (stemp != null) stack.push(stemp);
-                        stack.push(c);
-                    }
-                }
-                k++;
-            }
-
-            if (isOperation(term)) {
-                if (stack.size() == 0) stack.push(term);
-                else {
-                    String c = term;
-                    String stemp = (String) stack.pop();
-                    if (getPrior(c) > getPrior(stemp)) {
-                        stack.push(stemp);
-                        stack.push(c);
-                    } else {
-                        while ((stemp != null) && (getPrior(c) <= getPrior(stemp))) {
-                            pol.add(stemp);
-                            if (stack.size() != 0)
-                                stemp = (String) stack.pop();
-                            else stemp = null;
-                        }
-                        if (stemp != null) stack.push(stemp);
-                        stack.push(c);
-                    }
-                }
-            }
-
-        }
-
-        while (stack.size() != 0) {
-            pol.add(stack.pop());
-        }
-        //System.out.println(pol);
+    public Parser() {
     }
 
     public FractionalNumber[] parseUserAnswer(String ustr) throws UserAnswerParseException {
@@ -175,126 +86,111 @@ public class Parser {
     }
 
     public FractionalNumber parse(String ustr) {
-        ustr = ustr.replaceAll("\\s+", "");
-        stack.clear();
-        pol.clear();
-        exps = ustr;
-        k = 0;
-        rebuildExps();
-        int index = 0;
-        while ((pol.size() >= 1) && (index < pol.size())) {
-            if (isNumber((String) pol.get(index))) {
-                //System.err.println(pol.get(index));
-                String str = (String) pol.remove(index);
-                pol.add(index, new FractionalNumber(new BigInteger(str)));
-                index++;
-            } else if (isOperation((String) pol.get(index))) {
-                String op = (String) pol.get(index);
-                FractionalNumber res = null;
-                if (termA.equals(op) || termS.equals(op) || termD.equals(op) || termM.equals(op) || termP.equals(op)) {
-                    FractionalNumber bi1, bi2;
-                    if (index > 0) {
-                        bi2 = (FractionalNumber) pol.remove(index - 1);
-                        index--;
-                    } else bi2 = new FractionalNumber(BigInteger.valueOf(0));
-
-                    if (index > 0) {
-                        bi1 = (FractionalNumber) pol.remove(index - 1);
-                        index--;
-                    } else bi1 = new FractionalNumber(BigInteger.valueOf(0));
-
-                    if (termA.equals(op)) res = bi1.add(bi2);
-                    if (termS.equals(op)) res = bi1.substract(bi2);
-                    if (termM.equals(op)) res = bi1.multiply(bi2);
-                    if (termD.equals(op)) res = bi1.divide(bi2);
-                    if (termP.equals(op)) res = bi1.pow(bi2);
-                }
-                if (termF.equals(op)) {
-                    FractionalNumber bi1;
-                    if (index > 0) {
-                        bi1 = (FractionalNumber) pol.remove(index - 1);
-                        index--;
-                    } else bi1 = new FractionalNumber(BigInteger.valueOf(0));
-                    res = new FractionalNumber(MathOperations.factorial(bi1.getBigInteger().intValue()));
-                }
-                pol.remove(index);
-                pol.add(index, res);
-                index++;
-            } else {
-                throw new RuntimeException();
+        Program program = programs.get(ustr);
+        if (program == null) {
+            program = new Compiler(ustr).compile();
+            if (programs.size() >= MAX_PROGRAMS) {
+                programs.clear();
             }
+            programs.put(ustr, program);
         }
-        //System.out.println(pol);        
-        return (FractionalNumber) pol.get(0);
-    }
-
-    public String getTerm(StringBuffer sb) {
-        String ch = sb.substring(k, k + 1);
-
-        if (terms.contains(ch)) {
-            k++;
-            return ch;
-        } else {
-            int temp = k;
-
-            if (isDigit(sb, k)) {
-                while (isDigit(sb, temp)) temp++;
-                String str = sb.substring(k, temp);
-                k = temp;
-                return str;
-            }
-
-            if (isLetter(sb, k)) {
-                while (isLetter(sb, temp)) temp++;
-                String str = sb.substring(k, temp);
-                k = temp;
-                return str;
+        if (program.longConstants != null) {
+            try {
+                return program.evaluateLong();
+            } catch (ArithmeticException e) {
+                // переполнение long - считаем заново точно
             }
-
         }
-        return "";
+        return program.evaluate();
     }
 
     public static boolean isDigit(StringBuffer sb, int k) {
-        if (k >= sb.length()) return false;
-        char c = sb.charAt(k);
-        if ((c >= '0') && (c <= '9')) return true;
-        else return false;
+        return k < sb.length() && isDigit(sb.charAt(k));
     }
 
     public static boolean isLetter(StringBuffer sb, int k) {
-        if (k >= sb.length()) return false;
-        char c = sb.charAt(k);
-        if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))) return true;
-        else return false;
+        return k < sb.length() && isLetter(sb.charAt(k));
+    }
+
+    public static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    public static boolean isLetter(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
     }
 
     public static boolean isFunction(String str) {
-        char c = str.charAt(0);
-        if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))) return true;
-        else return false;
+        return isLetter(str.charAt(0));
     }
 
     public static boolean isNumber(String s) {
-        char c = s.charAt(0);
-        if ((c >= '0') && (c <= '9')) return true;
-        else return false;
+        return isDigit(s.charAt(0));
     }
 
-
     public static boolean isOperation(String s) {
-        if (termA.equals(s) || termS.equals(s) || termD.equals(s) || termM.equals(s) || termP.equals(s) || termF.equals(s))
-            return true;
-        return false;
+        return s.length() == 1 && isOperation(s.charAt(0));
     }
 
     public static int getPrior(String c) {
-        if (termF.equals(c)) return 5;
-        if (termP.equals(c)) return 4;
-        if (termM.equals(c) || termD.equals(c)) return 3;
-        if (termA.equals(c) || termS.equals(c)) return 2;
-        if (termO.equals(c)) return 1;
-        return 0;
+        return c.length() == 1 ? getPrior(c.charAt(0)) : 0;
+    }
+
+    private static boolean isOperation(char c) {
+        return c == termA || c == termS || c == termD || c == termM || c == termP || c == termF;
+    }
+
+    private static boolean isTerm(char c) {
+        return c == termO || c == termC || isOperation(c);
+    }
+
+    private static int getPrior(char c) {
+        switch (c) {
+            case termF:
+                return 5;
+            case termP:
+                return 4;
+            case termM:
+            case termD:
+                return 3;
+            case termA:
+            case termS:
+                return 2;
+            case termO:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int getCode(char c) {
+        switch (c) {
+            case termA:
+                return ADD;
+            case termS:
+                return SUB;
+            case termM:
+                return MUL;
+            case termD:
+                return DIV;
+            case termP:
+                return POW;
+            case termF:
+                return FACT;
+            default:
+                // незакрытая скобка
+                throw new RuntimeException("Unbalanced parenthesis");
+        }
+    }
+
+    /**
+     * Результат из count множителей не больше factor не должен превышать MAX_BITS.
+     */
+    private static void checkBits(long count, BigInteger factor) {
+        long bits = Math.max(1, factor.bitLength());
+        if (count > MAX_BITS / bits) {
+            throw new IllegalArgumentException("Number is too large");
+        }
     }
 
     public static void main(String[] str) {
@@ -303,51 +199,361 @@ public class Parser {
         }
     }
 
-    private BigInteger[] getParameters(StringBuffer sb) {
-        String pstr = null;
-        if (k >= sb.length()) return null;
-        if (!termO.equals(sb.substring(k, k + 1))) return null;
-        int count = 1;
-        int oldk = k + 1;
-        while (count != 0) {
+    /**
+     * Перевод выражения в польскую запись за один проход. Функции C и A вычисляются сразу.
+     */
+    private static class Compiler {
+
+        private final String s;
+
+        private int k;
+
+        private final StringBuilder ops = new StringBuilder();
+
+        private int[] code = new int[16];
+
+        private int size;
+
+        private final ArrayList<BigInteger> constants = new ArrayList<BigInteger>();
+
+        Compiler(String ustr) {
+            s = preParse(ustr);
+        }
+
+        /**
+         * Удаляет пробелы и вставляет нули перед унарным минусом.
+         */
+        private static String preParse(String ustr) {
+            StringBuilder sb = new StringBuilder(ustr.length() + 4);
+            for (int i = 0; i < ustr.length(); i++) {
+                char c = ustr.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                    continue;
+                }
+                if (c == termS && (sb.length() == 0 || sb.charAt(sb.length() - 1) == termO)) {
+                    sb.append('0');
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        Program compile() {
+            int len = s.length();
+            while (k < len) {
+                char term = s.charAt(k);
+                if (isTerm(term)) {
+                    k++;
+                    if (term == termC) {
+                        char c;
+                        do {
+                            if (ops.length() == 0) {
+                                throw new RuntimeException("Unbalanced parenthesis");
+                            }
+                            c = pop();
+                            if (c != termO) emit(getCode(c));
+                        } while (c != termO);
+                    } else if (term == termO) {
+                        ops.append(termO);
+                    }
+                } else if (isDigit(term)) {
+                    int start = k;
+                    while (k < len && isDigit(s.charAt(k))) k++;
+                    emitConstant(new BigInteger(s.substring(start, k)));
+                } else if (isLetter(term)) {
+                    int start = k;
+                    while (k < len && isLetter(s.charAt(k))) k++;
+                    String name = s.substring(start, k);
+                    BigInteger[] abi = getParameters();
+                    if ("C".equalsIgnoreCase(name)) {
+                        long n = abi[0].longValueExact();
+                        long m = abi[1].longValueExact();
+                        if (m >= 0 && m <= n) {
+                            checkBits(Math.min(m, n - m), abi[0]);
+                        }
+                        emitConstant(MathOperations.combination(n, m));
+                    }
+                    if ("A".equalsIgnoreCase(name)) {
+                        long n = abi[0].longValueExact();
+                        long m = abi[1].longValueExact();
+                        if (m > 0 && m <= n) {
+                            checkBits(m, abi[0]);
+                        }
+                        emitConstant(MathOperations.layout(n, m));
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unexpected character '" + term + "' in " + s);
+                }
+
+                // знак операции сразу после терма разбирается раньше самого терма-операции
+                if (k < len && isOperation(s.charAt(k))) {
+                    operation(s.charAt(k));
+                    k++;
+                }
+                if (isOperation(term)) {
+                    operation(term);
+                }
+            }
+            while (ops.length() != 0) {
+                emit(getCode(pop()));
+            }
+            int[] program = new int[size];
+            System.arraycopy(code, 0, program, 0, size);
+            return new Program(program, constants.toArray(new BigInteger[constants.size()]));
+        }
+
+        private void operation(char c) {
+            int prior = getPrior(c);
+            while (ops.length() != 0 && prior <= getPrior(ops.charAt(ops.length() - 1))) {
+                emit(getCode(pop()));
+            }
+            ops.append(c);
+        }
+
+        private char pop() {
+            char c = ops.charAt(ops.length() - 1);
+            ops.setLength(ops.length() - 1);
+            return c;
+        }
+
+        private void emitConstant(BigInteger value) {
+            constants.add(value);
+            emit(constants.size() - 1);
+        }
+
+        private void emit(int op) {
+            if (size == code.length) {
+                int[] larger = new int[size * 2];
+                System.arraycopy(code, 0, larger, 0, size);
+                code = larger;
+            }
+            code[size++] = op;
+        }
+
+        /**
+         * Аргументы функции в скобках сразу после имени; null, если скобок нет или они не закрыты.
+         */
+        private BigInteger[] getParameters() {
+            if (k >= s.length() || s.charAt(k) != termO) return null;
+            int count = 1;
+            int oldk = k + 1;
+            while (count != 0) {
+                k++;
+                if (k >= s.length()) return null;
+                if (s.charAt(k) == termO) count++;
+                if (s.charAt(k) == termC) count--;
+            }
+            String pstr = s.substring(oldk, k);
             k++;
-            if (k >= sb.length()) return null;
-            if (termO.equals(sb.substring(k, k + 1))) count++;
-            if (termC.equals(sb.substring(k, k + 1))) count--;
+            String[] strs = split(pstr);
+            BigInteger[] abi = new BigInteger[strs.length];
+            Parser p = new Parser();
+            for (int i = 0; i < abi.length; i++) {
+                abi[i] = p.parse(strs[i].trim()).getBigInteger();
+            }
+            return abi;
         }
-        pstr = sb.substring(oldk, k);
-        //System.out.println(pstr);
-        k++;
-        String[] strs = split(pstr);
-        BigInteger[] abi = new BigInteger[strs.length];
-        Parser p = new Parser();
-        for (int i = 0; i < abi.length; i++) {
-            abi[i] = p.parse(strs[i].trim()).getBigInteger();
+
+        private static String[] split(String str) {
+            ArrayList<String> al = new ArrayList<String>();
+            str = str.trim();
+            int count = 0;
+            int p = 0;
+            int oldp = p;
+            while (p != str.length() - 1) {
+                char c = str.charAt(p);
+                if ((c == ',') && (count == 0)) {
+                    al.add(str.substring(oldp, p));
+                    oldp = p + 1;
+                }
+                if (c == termO) count++;
+                if (c == termC) count--;
+                p++;
+            }
+            al.add(str.substring(oldp, p + 1));
+            return al.toArray(new String[al.size()]);
         }
-        //System.out.println(strs);
-        //System.out.println(abi);
-        return abi;
     }
 
-    private String[] split(String str) {
-        ArrayList al = new ArrayList();
-        str = str.trim();
-        int count = 0;
-        int p = 0;
-        int oldp = p;
-        while (p != str.length() - 1) {
-            if ((str.charAt(p) == ',') && (count == 0)) {
-                al.add(str.substring(oldp, p));
-                oldp = p + 1;
+    /**
+     * Выражение в польской записи. Недостающий операнд считается нулем.
+     */
+    private static class Program {
+
+        private final int[] code;
+
+        private final BigInteger[] constants;
+
+        // null, если какая-то константа не помещается в long
+        private final long[] longConstants;
+
+        Program(int[] code, BigInteger[] constants) {
+            this.code = code;
+            this.constants = constants;
+            long[] values = new long[constants.length];
+            for (int i = 0; i < constants.length; i++) {
+                if (constants[i].bitLength() >= 64) {
+                    values = null;
+                    break;
+                }
+                values[i] = constants[i].longValue();
             }
-            if (termO.equals(str.substring(p, p + 1))) count++;
-            if (termC.equals(str.substring(p, p + 1))) count--;
-            p++;
+            longConstants = values;
         }
-        al.add(str.substring(oldp, p + 1));
-        return (String[]) al.toArray(new String[0]);
-    }
 
-}
+        FractionalNumber evaluate() {
+            FractionalNumber[] stack = new FractionalNumber[code.length];
+            int sp = 0;
+            for (int op : code) {
+                if (op >= 0) {
+                    stack[sp++] = new FractionalNumber(constants[op]);
+                    continue;
+                }
+                FractionalNumber bi2 = sp > 0 ? stack[--sp] : FractionalNumber.ZERO;
+                if (op == FACT) {
+                    BigInteger n = bi2.getBigInteger();
+                    if (n.compareTo(BigInteger.valueOf(MAX_FACTORIAL)) > 0) {
+                        throw new IllegalArgumentException("Factorial argument is too large: " + n);
+                    }
+                    stack[sp++] = new FractionalNumber(MathOperations.factorial(n.intValue()));
+                    continue;
+                }
+                FractionalNumber bi1 = sp > 0 ? stack[--sp] : FractionalNumber.ZERO;
+                if (op == POW) {
+                    BigInteger power = bi2.getBigInteger();
+                    if (power.signum() > 0) {
+                        checkBits(power.bitLength() > 31 ? Long.MAX_VALUE : power.longValue(),
+                                bi1.getNumerator().bitLength() > bi1.getDenominator().bitLength() ? bi1.getNumerator() : bi1.getDenominator());
+                    }
+                }
+                switch (op) {
+                    case ADD:
+                        stack[sp++] = bi1.add(bi2);
+                        break;
+                    case SUB:
+                        stack[sp++] = bi1.substract(bi2);
+                        break;
+                    case MUL:
+                        stack[sp++] = bi1.multiply(bi2);
+                        break;
+                    case DIV:
+                        stack[sp++] = bi1.divide(bi2);
+                        break;
+                    default:
+                        stack[sp++] = bi1.pow(bi2);
+                }
+                FractionalNumber result = stack[sp - 1];
+                if (result.getNumerator().bitLength() > MAX_BITS || result.getDenominator().bitLength() > MAX_BITS) {
+                    throw new IllegalArgumentException("Number is too large");
+                }
+            }
+            if (sp == 0) {
+                throw new IndexOutOfBoundsException("Empty expression");
+            }
+            return stack[0];
+        }
 
+        /**
+         * То же вычисление в несократимых дробях из long. При переполнении бросает ArithmeticException.
+         */
+        FractionalNumber evaluateLong() {
+            long[] num = new long[code.length];
+            long[] den = new long[code.length];
+            int sp = 0;
+            for (int op : code) {
+                if (op >= 0) {
+                    num[sp] = longConstants[op];
+                    den[sp++] = 1;
+                    continue;
+                }
+                long n2 = 0;
+                long d2 = 1;
+                if (sp > 0) {
+                    n2 = num[--sp];
+                    d2 = den[sp];
+                }
+                if (op == FACT) {
+                    num[sp] = MathOperations.factorialLong(Math.toIntExact(integer(n2, d2)));
+                    den[sp++] = 1;
+                    continue;
+                }
+                long n1 = 0;
+                long d1 = 1;
+                if (sp > 0) {
+                    n1 = num[--sp];
+                    d1 = den[sp];
+                }
+                long n;
+                long d;
+                switch (op) {
+                    case ADD:
+                        n = Math.addExact(Math.multiplyExact(n1, d2), Math.multiplyExact(n2, d1));
+                        d = Math.multiplyExact(d1, d2);
+                        break;
+                    case SUB:
+                        n = Math.subtractExact(Math.multiplyExact(n1, d2), Math.multiplyExact(n2, d1));
+                        d = Math.multiplyExact(d1, d2);
+                        break;
+                    case MUL:
+                        n = Math.multiplyExact(n1, n2);
+                        d = Math.multiplyExact(d1, d2);
+                        break;
+                    case DIV:
+                        if (n2 == 0) throw new IllegalArgumentException("number must be not zero");
+                        n = Math.multiplyExact(n1, d2);
+                        d = Math.multiplyExact(d1, n2);
+                        break;
+                    default:
+                        int power = Math.toIntExact(integer(n2, d2));
+                        n = pow(n1, power);
+                        d = pow(d1, power);
+                }
+                if (d < 0) {
+                    n = Math.negateExact(n);
+                    d = Math.negateExact(d);
+                }
+                long g = gcd(n, d);
+                num[sp] = n / g;
+                den[sp++] = d / g;
+            }
+            if (sp == 0) {
+                throw new IndexOutOfBoundsException("Empty expression");
+            }
+            return FractionalNumber.valueOf(num[0], den[0]);
+        }
+
+        private static long integer(long n, long d) {
+            if (d != 1) {
+                throw new RuntimeException("Cannot cast this number to BigInteger");
+            }
+            return n;
+        }
 
+        private static long pow(long base, int power) {
+            if (power < 0) throw new ArithmeticException("Negative exponent");
+            long result = 1;
+            while (power > 0) {
+                if ((power & 1) != 0) {
+                    result = Math.multiplyExact(result, base);
+                }
+                power >>= 1;
+                if (power > 0) {
+                    base = Math.multiplyExact(base, base);
+                }
+            }
+            return result;
+        }
+
+        // d > 0
+        private static long gcd(long a, long b) {
+            if (a == Long.MIN_VALUE) throw new ArithmeticException("long overflow");
+            a = Math.abs(a);
+            while (a != 0) {
+                long t = b % a;
+                b = a;
+                a = t;
+            }
+            return b;
+        }
+    }
+}
@@ -41,6 +41,30 @@ public class SystemProperties {
 
     public static final String ENV = "env";
 
+    public static final String VERIFY_PARALLELISM = "verifyParallelism";
+
+    public static final String COMPILE_FUNCTIONS = "compileFunctions";
+
+    public static final String ANSWER_CACHE_SIZE = "answerCacheSize";
+
+    public static final String ANSWER_CACHE_FILE = "answerCacheFile";
+
+    public static final String TASK_CACHE_WEIGHT = "taskCacheWeight";
+
+    public static final String HTTP_PORT = "httpPort";
+
+    public static final String HTTP_THREADS = "httpThreads";
+
+    public static final String VERIFY_QUEUE = "verifyQueue";
+
+    public static final String VERIFY_DEADLINE = "verifyDeadline";
+
+    public static final String VERIFY_FAST_COST = "verifyFastCost";
+
+    public static final String VERIFY_FAST_WORKERS = "verifyFastWorkers";
+
+    public static final String VERIFY_HEAVY_WORKERS = "verifyHeavyWorkers";
+
     public static SystemProperties instance = new SystemProperties();
 
     private HashMap properties = new HashMap();
@@ -51,6 +75,18 @@ public class SystemProperties {
         properties.put(PROXY_CLASS, "ru.spb.ipo.engine.rmi.ServerImpl");
         properties.put(IS_APPLET, "false");
         properties.put(SYSTEM_NAME, "turtle");
+        properties.put(VERIFY_PARALLELISM, System.getProperty(VERIFY_PARALLELISM, String.valueOf(Runtime.getRuntime().availableProcessors())));
+        properties.put(COMPILE_FUNCTIONS, System.getProperty(COMPILE_FUNCTIONS, "false"));
+        properties.put(ANSWER_CACHE_SIZE, System.getProperty(ANSWER_CACHE_SIZE, "1024"));
+        properties.put(ANSWER_CACHE_FILE, System.getProperty(ANSWER_CACHE_FILE, ""));
+        properties.put(TASK_CACHE_WEIGHT, System.getProperty(TASK_CACHE_WEIGHT, String.valueOf(32 * 1024 * 1024)));
+        properties.put(HTTP_PORT, System.getProperty(HTTP_PORT, "8080"));
+        properties.put(HTTP_THREADS, System.getProperty(HTTP_THREADS, "8"));
+        properties.put(VERIFY_QUEUE, System.getProperty(VERIFY_QUEUE, "32"));
+        properties.put(VERIFY_DEADLINE, System.getProperty(VERIFY_DEADLINE, "0"));
+        properties.put(VERIFY_FAST_COST, System.getProperty(VERIFY_FAST_COST, "10000000"));
+        properties.put(VERIFY_FAST_WORKERS, System.getProperty(VERIFY_FAST_WORKERS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+        properties.put(VERIFY_HEAVY_WORKERS, System.getProperty(VERIFY_HEAVY_WORKERS, String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
     }
 
     public static Object get(String key) {
@@ -83,4 +119,8 @@ public class SystemProperties {
         return (String) instance.properties.get(key);
     }
 
+    public static int getInt(String key) {
+        return Integer.parseInt(String.valueOf(instance.properties.get(key)).trim());
+    }
+
 }
@@ -27,9 +27,25 @@ import ru.spb.ipo.engine.exception.ParameterNotSetException;
 import ru.spb.ipo.engine.exception.XmlException;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Utils {
 
+    private static final Map<String, Class> classes = new ConcurrentHashMap<String, Class>();
+
+    /**
+     * Class.forName с запоминанием: множества, функции и верификаторы создаются по имени типа при каждой проверке.
+     */
+    public static Class forName(String name) throws ClassNotFoundException {
+        Class c = classes.get(name);
+        if (c == null) {
+            c = Class.forName(name);
+            classes.put(name, c);
+        }
+        return c;
+    }
+
     public static Node getChild(Node parent, String childName) throws XmlException {
         Node res = getChildIfExists(parent, childName);
         if (res == null) {
@@ -24,6 +24,7 @@ import ru.spb.ipo.engine.utils.UIUtil;
 import javax.swing.*;
 import java.awt.*;
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -109,4 +110,8 @@ public class AppletFileAccess extends AbstractFileAccessor {
     public String getContext() {
         return "/";
     }
+
+    public File getLocalFile(String fileName) {
+        return null;
+    }
 }
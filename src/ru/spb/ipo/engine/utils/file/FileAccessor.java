@@ -20,6 +20,7 @@
 package ru.spb.ipo.engine.utils.file;
 
 import javax.swing.*;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -32,4 +33,9 @@ public interface FileAccessor {
     public ImageIcon getIcon(String fileName) throws IOException;
 
     public String[] list(InputStream is) throws IOException;
+
+    /**
+     * @return файл на локальном диске или null, если файлы читаются не с диска
+     */
+    public File getLocalFile(String fileName);
 }
@@ -61,6 +61,10 @@ public class OfflineFileAccessor extends AbstractFileAccessor {
         return codeBase + "/";
     }
 
+    public File getLocalFile(String fileName) {
+        return new File(getContext() + getSafe(fileName));
+    }
+
 
     public String[] list(InputStream is) throws IOException {
         // TODO Auto-generated method stub
@@ -25,7 +25,6 @@ import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
 import ru.spb.ipo.engine.functions.Function;
 import ru.spb.ipo.engine.task.Node;
-import ru.spb.ipo.engine.utils.FractionalNumber;
 
 public class AnswerVerifier extends Verifier {
 
@@ -35,8 +34,8 @@ public class AnswerVerifier extends Verifier {
         fn = Function.generateFunction(node.getChild(VERIFIER).getChild(FUNCTION));
     }
 
-    public boolean verify(FractionalNumber[] answers) {
+    public SystemAnswer computeAnswer() {
         Element systemAnswer = fn.compute(null);
-        return systemAnswer.getFractionalNumber().equals(answers[0]);
+        return SystemAnswer.single(systemAnswer.getFractionalNumber());
     }
 }
@@ -0,0 +1,438 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.elements.IntElement;
+import ru.spb.ipo.engine.functions.AbstractFunction;
+import ru.spb.ipo.engine.functions.Add;
+import ru.spb.ipo.engine.functions.And;
+import ru.spb.ipo.engine.functions.CurrentElement;
+import ru.spb.ipo.engine.functions.Equals;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.functions.Greater;
+import ru.spb.ipo.engine.functions.Mod;
+import ru.spb.ipo.engine.functions.Not;
+import ru.spb.ipo.engine.functions.Projection;
+import ru.spb.ipo.engine.functions.Smaller;
+import ru.spb.ipo.engine.functions.Sub;
+import ru.spb.ipo.engine.sets.DecartSet;
+import ru.spb.ipo.engine.sets.Set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Подсчет кортежей без перебора для условий вида "сумма проекций равна (больше, меньше) константе или другой сумме,
+ * остаток от деления суммы равен константе", соединенных через And, над декартовым произведением целочисленных множеств.
+ * <p/>
+ * Каждое условие сводится к линейной форме от компонент кортежа. Условия на одну компоненту сужают множество
+ * ее значений, по остальным считается динамика: состояние - текущие значения частичных сумм форм
+ * (или их остатки, если форма используется только под Mod). Компоненты, не входящие в формы, учитываются умножением.
+ */
+public class CountingPlan {
+
+    // ограничение на число состояний динамики, при превышении подсчет идет перебором
+    private static final int MAX_STATES = 1 << 20;
+
+    private static final int EQ = 0;
+    private static final int GT = 1;
+    private static final int LT = 2;
+    private static final int NE = 3;
+
+    private int axes;
+
+    private int[][] domains;
+
+    private List<Constraint> constraints = new ArrayList<Constraint>();
+
+    private boolean empty;
+
+    private CountingPlan() {
+    }
+
+    /**
+     * Строит план подсчета или возвращает null, если условие или множество не подходят.
+     */
+    public static CountingPlan create(Set source, Function condition) {
+        if (!(source instanceof DecartSet)) {
+            return null;
+        }
+        Set[] sets = ((DecartSet) source).getSets();
+        CountingPlan plan = new CountingPlan();
+        plan.axes = sets.length;
+        plan.domains = new int[sets.length][];
+        for (int i = 0; i < sets.length; i++) {
+            if (!sets[i].isIntValued() || sets[i].getSize() > MAX_STATES) {
+                return null;
+            }
+            int[] domain = new int[(int) sets[i].getSize()];
+            for (int j = 0; j < domain.length; j++) {
+                domain[j] = sets[i].getIntValue(j + 1);
+            }
+            plan.domains[i] = domain;
+        }
+        if (!plan.addConditions(condition, true)) {
+            return null;
+        }
+        return plan.prepare() ? plan : null;
+    }
+
+    /**
+     * Разбирает условие, для And - каждый аргумент отдельно.
+     *
+     * @param root - условие верхнего уровня, его значение сравнивается с ptrue, а не с pfalse
+     */
+    private boolean addConditions(AbstractFunction function, boolean root) {
+        if (function.getClass() == And.class) {
+            AbstractFunction[] fns = ((Function) function).getArguments();
+            for (int i = 0; i < fns.length; i++) {
+                if (!addConditions(fns[i], false)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Class c = function.getClass();
+        if (root && c != Equals.class && c != Greater.class && c != Smaller.class && c != Not.class) {
+            return false;
+        }
+        Constraint constraint = constraint(function);
+        if (constraint == null) {
+            return false;
+        }
+        constraints.add(constraint);
+        return true;
+    }
+
+    private Constraint constraint(AbstractFunction function) {
+        Class c = function.getClass();
+        if (c == Not.class) {
+            Constraint constraint = constraint(((Function) function).getArguments()[0]);
+            if (constraint != null) {
+                constraint.negate = !constraint.negate;
+            }
+            return constraint;
+        }
+        if (c == Equals.class || c == Greater.class || c == Smaller.class) {
+            AbstractFunction[] fns = ((Function) function).getArguments();
+            if (fns.length != 2) {
+                return null;
+            }
+            int kind = c == Equals.class ? EQ : (c == Greater.class ? GT : LT);
+            long[] left = linear(fns[0]);
+            long[] right = linear(fns[1]);
+            if (left != null && right != null) {
+                for (int i = 0; i <= axes; i++) {
+                    left[i] -= right[i];
+                }
+                return new Constraint(left, false, 0, kind, 0);
+            }
+            if (right != null && isConstant(right) && fns[0].getClass() == Mod.class) {
+                return modConstraint((Mod) fns[0], kind, right[axes]);
+            }
+            if (left != null && isConstant(left) && fns[1].getClass() == Mod.class) {
+                return modConstraint((Mod) fns[1], kind == EQ ? EQ : (kind == GT ? LT : GT), left[axes]);
+            }
+            return null;
+        }
+        if (c == Mod.class) {
+            return modConstraint((Mod) function, NE, 0);
+        }
+        long[] form = linear(function);
+        return form == null ? null : new Constraint(form, false, 0, NE, 0);
+    }
+
+    private Constraint modConstraint(Mod mod, int kind, long value) {
+        AbstractFunction[] fns = mod.getArguments();
+        long[] form = linear(fns[0]);
+        long[] base = linear(fns[1]);
+        if (form == null || base == null || !isConstant(base)) {
+            return null;
+        }
+        return new Constraint(form, true, base[axes], kind, value);
+    }
+
+    /**
+     * Коэффициенты линейной формы от компонент кортежа, последний элемент - свободный член, или null.
+     */
+    private long[] linear(AbstractFunction function) {
+        Class c = function.getClass();
+        if (c == IntElement.class) {
+            long[] form = new long[axes + 1];
+            form[axes] = ((IntElement) function).getInt();
+            return form;
+        }
+        if (c == Projection.class) {
+            Projection projection = (Projection) function;
+            int axis = projection.getAxis();
+            if (!(projection.getArguments()[0] instanceof CurrentElement) || axis < 1 || axis > axes) {
+                return null;
+            }
+            long[] form = new long[axes + 1];
+            form[axis - 1] = 1;
+            return form;
+        }
+        if (c == Add.class || c == Sub.class) {
+            AbstractFunction[] fns = ((Function) function).getArguments();
+            if (fns.length == 0) {
+                return null;
+            }
+            long[] form = new long[axes + 1];
+            for (int i = 0; i < fns.length; i++) {
+                long[] arg = linear(fns[i]);
+                if (arg == null) {
+                    return null;
+                }
+                long sign = c == Add.class || (i == 0 && fns.length > 1) ? 1 : -1;
+                for (int j = 0; j <= axes; j++) {
+                    form[j] += sign * arg[j];
+                }
+            }
+            return form;
+        }
+        return null;
+    }
+
+    private boolean isConstant(long[] form) {
+        for (int i = 0; i < axes; i++) {
+            if (form[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Условия на одну компоненту сужают ее значения, для остальных проверяется, что суммы не выходят за int.
+     */
+    private boolean prepare() {
+        List<Constraint> joint = new ArrayList<Constraint>();
+        for (Constraint constraint : constraints) {
+            int axis = -1;
+            int count = 0;
+            for (int i = 0; i < axes; i++) {
+                if (constraint.form[i] != 0) {
+                    axis = i;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                empty |= !constraint.test(constraint.form[axes]);
+            } else if (count == 1) {
+                int[] domain = domains[axis];
+                int[] filtered = new int[domain.length];
+                int size = 0;
+                for (int j = 0; j < domain.length; j++) {
+                    if (constraint.test(constraint.form[axis] * domain[j] + constraint.form[axes])) {
+                        filtered[size++] = domain[j];
+                    }
+                }
+                domains[axis] = Arrays.copyOf(filtered, size);
+            } else {
+                joint.add(constraint);
+            }
+        }
+        constraints = joint;
+        for (Constraint constraint : constraints) {
+            long min = constraint.form[axes];
+            long max = constraint.form[axes];
+            long bound = Math.abs(constraint.form[axes]);
+            for (int i = 0; i < axes; i++) {
+                long a = constraint.form[i];
+                if (a == 0 || domains[i].length == 0) {
+                    continue;
+                }
+                long low = Long.MAX_VALUE;
+                long high = Long.MIN_VALUE;
+                long abs = 0;
+                for (int j = 0; j < domains[i].length; j++) {
+                    low = Math.min(low, a * domains[i][j]);
+                    high = Math.max(high, a * domains[i][j]);
+                    abs = Math.max(abs, Math.abs(a * domains[i][j]));
+                }
+                min += low;
+                max += high;
+                bound += abs;
+            }
+            // в исходных функциях суммы считаются в int
+            if (bound > Integer.MAX_VALUE) {
+                return false;
+            }
+            // если форма неотрицательна, остаток от деления можно считать по частичным суммам
+            if (constraint.mod && constraint.base > 0 && min >= 0) {
+                constraint.modulus = constraint.base;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Количество подходящих кортежей или -1, если состояний динамики слишком много.
+     */
+    public long count() {
+        if (empty) {
+            return 0;
+        }
+        int k = constraints.size();
+        int[] last = new int[k];
+        boolean[] used = new boolean[axes];
+        for (int j = 0; j < k; j++) {
+            long[] form = constraints.get(j).form;
+            for (int i = 0; i < axes; i++) {
+                if (form[i] != 0) {
+                    used[i] = true;
+                    last[j] = i;
+                }
+            }
+        }
+
+        long free = 1;
+        for (int i = 0; i < axes; i++) {
+            if (!used[i]) {
+                free *= domains[i].length;
+            }
+        }
+
+        Map<State, Long> states = new HashMap<State, Long>();
+        states.put(new State(new long[k]), 1L);
+        for (int i = 0; i < axes; i++) {
+            if (!used[i]) {
+                continue;
+            }
+            Map<State, Long> next = new HashMap<State, Long>();
+            for (Map.Entry<State, Long> entry : states.entrySet()) {
+                long[] sums = entry.getKey().sums;
+                for (int value : domains[i]) {
+                    long[] nsums = sums.clone();
+                    boolean passed = true;
+                    for (int j = 0; j < k && passed; j++) {
+                        Constraint constraint = constraints.get(j);
+                        if (constraint.form[i] == 0) {
+                            continue;
+                        }
+                        nsums[j] += constraint.form[i] * value;
+                        if (constraint.modulus != 0) {
+                            nsums[j] %= constraint.modulus;
+                        }
+                        if (last[j] == i) {
+                            // форма вычислена полностью - проверяем условие и забываем сумму
+                            passed = constraint.test(nsums[j] + constraint.form[axes]);
+                            nsums[j] = 0;
+                        }
+                    }
+                    if (passed) {
+                        State state = new State(nsums);
+                        Long count = next.get(state);
+                        next.put(state, count == null ? entry.getValue() : count + entry.getValue());
+                    }
+                }
+                if (next.size() > MAX_STATES) {
+                    return -1;
+                }
+            }
+            states = next;
+        }
+        long result = 0;
+        for (Long count : states.values()) {
+            result += count;
+        }
+        return result * free;
+    }
+
+    /**
+     * Условие "op(f(L), value)", где L - линейная форма, f - тождественная функция или остаток от деления на base.
+     */
+    private static class Constraint {
+
+        private long[] form;
+
+        private boolean mod;
+
+        private long base;
+
+        private int kind;
+
+        private long value;
+
+        private boolean negate;
+
+        // не 0, если в динамике хранится остаток суммы по этому модулю
+        private long modulus;
+
+        Constraint(long[] form, boolean mod, long base, int kind, long value) {
+            this.form = form;
+            this.mod = mod;
+            this.base = base;
+            this.kind = kind;
+            this.value = value;
+        }
+
+        /**
+         * Проверяет условие для значения формы; в режиме остатков sum сравнимо со значением формы по модулю base.
+         */
+        boolean test(long sum) {
+            long v = sum;
+            if (mod) {
+                if (base == 0) {
+                    v = Integer.MAX_VALUE;
+                } else {
+                    v = modulus != 0 ? (sum % base + base) % base : sum % base;
+                }
+            }
+            boolean result;
+            switch (kind) {
+                case EQ:
+                    result = v == value;
+                    break;
+                case GT:
+                    result = v > value;
+                    break;
+                case LT:
+                    result = v < value;
+                    break;
+                default:
+                    result = v != value;
+            }
+            return result != negate;
+        }
+    }
+
+    private static class State {
+
+        private final long[] sums;
+
+        private final int hash;
+
+        State(long[] sums) {
+            this.sums = sums;
+            hash = Arrays.hashCode(sums);
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof State && Arrays.equals(sums, ((State) o).sums);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
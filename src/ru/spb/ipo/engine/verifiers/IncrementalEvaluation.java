@@ -0,0 +1,417 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntElement;
+import ru.spb.ipo.engine.functions.AbstractFunction;
+import ru.spb.ipo.engine.functions.Add;
+import ru.spb.ipo.engine.functions.And;
+import ru.spb.ipo.engine.functions.CurrentElement;
+import ru.spb.ipo.engine.functions.Div;
+import ru.spb.ipo.engine.functions.Equals;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.functions.Greater;
+import ru.spb.ipo.engine.functions.Mod;
+import ru.spb.ipo.engine.functions.Not;
+import ru.spb.ipo.engine.functions.Or;
+import ru.spb.ipo.engine.functions.Projection;
+import ru.spb.ipo.engine.functions.Smaller;
+import ru.spb.ipo.engine.functions.Sub;
+import ru.spb.ipo.engine.sets.DecartSet;
+import ru.spb.ipo.engine.sets.Set;
+import ru.spb.ipo.engine.sets.SetIterator;
+
+import java.util.Arrays;
+
+/**
+ * Подсчет по декартову произведению целочисленных множеств с пересчетом только того, что изменилось.
+ * Кортежи перебираются одометром, как в DecartSet.cursor(), и на большинстве шагов меняется только последняя
+ * компонента. Условие переводится в узлы над компонентами кортежа, у каждого узла - старшая (с наибольшим номером)
+ * из компонент, которые он читает. Когда меняются компоненты начиная с i, пересчитываются только узлы со старшей
+ * компонентой не меньше i, значения остальных остаются от предыдущего кортежа. Слагаемые Add и Sub упорядочиваются
+ * по компонентам, поэтому частичные суммы по неизменившимся компонентам тоже не пересчитываются.
+ * <p/>
+ * Узлы вычисляются все, без сокращенного вычисления And и Or. Если при этом возникает деление на ноль,
+ * подсчет отказывается (-1), и результат, в том числе ошибку, дает обычный перебор.
+ */
+public class IncrementalEvaluation {
+
+    private static final int CONST = 0;
+    private static final int AXIS = 1;
+    private static final int ADD = 2;
+    private static final int SUB = 3;
+    private static final int NEGATE = 4;
+    private static final int DIV = 5;
+    private static final int MOD = 6;
+    private static final int EQUALS = 7;
+    private static final int GREATER = 8;
+    private static final int SMALLER = 9;
+    private static final int NOT = 10;
+    private static final int AND = 11;
+    private static final int OR = 12;
+    private static final int TRUTH = 13;
+
+    // самое большое множество-сомножитель, значения которого копируются в массив
+    private static final int MAX_AXIS = 1 << 20;
+
+    private Set[] sets;
+
+    private long size;
+
+    // значения компонент: axes[i] - элементы i-го множества по порядку
+    private int[][] axes;
+
+    // узлы: операция, аргументы (для CONST - значение, для AXIS - номер компоненты с 0)
+    // и старшая компонента, от которой зависит значение (-1 - ни от какой)
+    private int[] op = new int[16];
+    private int[] first = new int[16];
+    private int[] second = new int[16];
+    private int[] level = new int[16];
+    private int nodes;
+
+    private int root;
+
+    // from[i + 1] - первый узел со старшей компонентой не меньше i, узлы упорядочены по старшей компоненте
+    private int[] from;
+
+    private IncrementalEvaluation() {
+    }
+
+    /**
+     * Возвращает подсчет или null, если source - не декартово произведение целочисленных множеств
+     * либо в условии есть функции, которые нельзя вычислить на int (поддержаны And, Or, Not, Equals, Greater,
+     * Smaller, Add, Sub, Div, Mod, Projection текущего элемента и целые константы).
+     */
+    public static IncrementalEvaluation create(Set source, Function condition) {
+        if (!(source instanceof DecartSet)) {
+            return null;
+        }
+        Set[] sets = ((DecartSet) source).getSets();
+        if (sets.length == 0) {
+            return null;
+        }
+        for (int i = 0; i < sets.length; i++) {
+            if (!sets[i].isIntValued() || sets[i].getSize() > MAX_AXIS) {
+                return null;
+            }
+        }
+        IncrementalEvaluation evaluation = new IncrementalEvaluation();
+        evaluation.sets = sets;
+        evaluation.size = source.getSize();
+        evaluation.root = evaluation.value(condition);
+        if (evaluation.root < 0) {
+            return null;
+        }
+        evaluation.sortNodes();
+        return evaluation;
+    }
+
+    // устойчивая сортировка подсчетом по старшей компоненте: аргументы узла создаются раньше него
+    // и их старшие компоненты не больше, поэтому аргументы по-прежнему вычисляются первыми.
+    // Узлы переставляются, так что номер узла - его место в порядке вычисления
+    private void sortNodes() {
+        int length = sets.length;
+        from = new int[length + 2];
+        for (int n = 0; n < nodes; n++) {
+            from[level[n] + 2]++;
+        }
+        for (int l = 1; l < from.length; l++) {
+            from[l] += from[l - 1];
+        }
+        int[] place = new int[nodes];
+        int[] next = Arrays.copyOf(from, length + 1);
+        for (int n = 0; n < nodes; n++) {
+            place[n] = next[level[n] + 1]++;
+        }
+        int[] sortedOp = new int[nodes];
+        int[] sortedFirst = new int[nodes];
+        int[] sortedSecond = new int[nodes];
+        int[] sortedLevel = new int[nodes];
+        for (int n = 0; n < nodes; n++) {
+            int p = place[n];
+            sortedOp[p] = op[n];
+            sortedLevel[p] = level[n];
+            boolean leaf = op[n] == CONST || op[n] == AXIS;
+            sortedFirst[p] = leaf ? first[n] : place[first[n]];
+            sortedSecond[p] = leaf || second[n] < 0 ? second[n] : place[second[n]];
+        }
+        op = sortedOp;
+        first = sortedFirst;
+        second = sortedSecond;
+        level = sortedLevel;
+        root = place[root];
+    }
+
+    private int[][] axes() {
+        int[][] values = new int[sets.length][];
+        for (int i = 0; i < sets.length; i++) {
+            values[i] = new int[(int) sets[i].getSize()];
+            SetIterator it = sets[i].cursor();
+            for (int j = 0; j < values[i].length && it.hasNext(); j++) {
+                values[i][j] = it.next().getInt();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return число кортежей, для которых условие истинно, или -1, если при вычислении возникла ошибка
+     *         (например, деление на ноль) и подсчитывать нужно обычным перебором
+     */
+    public long count() {
+        if (axes == null) {
+            axes = axes();
+        }
+        int length = axes.length;
+        int last = length - 1;
+        int[] position = new int[length];
+        int[] tuple = new int[length];
+        int[] values = new int[nodes];
+        for (int i = 0; i < length; i++) {
+            if (axes[i].length == 0) {
+                return 0;
+            }
+            tuple[i] = axes[i][0];
+        }
+        int[] lastAxis = axes[last];
+        int lastFrom = from[last + 1];
+        long count = 0;
+        long iteration = 0;
+        try {
+            int changed = -1;
+            while (true) {
+                evaluate(from[changed + 1], tuple, values);
+                if (values[root] == 1) {
+                    count++;
+                }
+                // остальные значения последней компоненты: пересчитываются только ее узлы
+                for (int p = 1; p < lastAxis.length; p++) {
+                    tuple[last] = lastAxis[p];
+                    evaluate(lastFrom, tuple, values);
+                    // как Element.ptrue.equals(condition.compute(tuple))
+                    if (values[root] == 1) {
+                        count++;
+                    }
+                }
+                iteration += lastAxis.length;
+                int i = last - 1;
+                while (i >= 0 && position[i] == axes[i].length - 1) {
+                    i--;
+                }
+                if (i < 0) {
+                    break;
+                }
+                position[i]++;
+                tuple[i] = axes[i][position[i]];
+                for (int j = i + 1; j < length; j++) {
+                    position[j] = 0;
+                    tuple[j] = axes[j][0];
+                }
+                changed = i;
+                Verifier.setCompleted((float) iteration / size);
+            }
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+        return count;
+    }
+
+    private void evaluate(int start, int[] tuple, int[] values) {
+        for (int n = start; n < nodes; n++) {
+            int a = first[n];
+            int b = second[n];
+            int value;
+            switch (op[n]) {
+                case CONST:
+                    value = a;
+                    break;
+                case AXIS:
+                    value = tuple[a];
+                    break;
+                case ADD:
+                    value = values[a] + values[b];
+                    break;
+                case SUB:
+                    value = values[a] - values[b];
+                    break;
+                case NEGATE:
+                    value = -values[a];
+                    break;
+                case DIV:
+                    value = values[a] / values[b];
+                    break;
+                case MOD:
+                    value = values[b] == 0 ? Integer.MAX_VALUE : values[a] % values[b];
+                    break;
+                case EQUALS:
+                    value = values[a] == values[b] ? 1 : 0;
+                    break;
+                case GREATER:
+                    value = values[a] > values[b] ? 1 : 0;
+                    break;
+                case SMALLER:
+                    value = values[a] < values[b] ? 1 : 0;
+                    break;
+                case NOT:
+                    value = values[a] == 0 ? 1 : 0;
+                    break;
+                case AND:
+                    value = values[a] != 0 && values[b] != 0 ? 1 : 0;
+                    break;
+                case OR:
+                    value = values[a] != 0 || values[b] != 0 ? 1 : 0;
+                    break;
+                case TRUTH:
+                    value = values[a] != 0 ? 1 : 0;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown node " + op[n]);
+            }
+            values[n] = value;
+        }
+    }
+
+    /**
+     * Узел со значением функции как целого числа (ptrue - 1, pfalse - 0), -1 - функцию нельзя перевести в узлы.
+     */
+    private int value(AbstractFunction function) {
+        Class c = function.getClass();
+        if (c == IntElement.class) {
+            return node(CONST, ((IntElement) function).getInt(), 0);
+        }
+        if (!(function instanceof Function)) {
+            return -1;
+        }
+        AbstractFunction[] fns = ((Function) function).getArguments();
+        if (c == And.class || c == Or.class) {
+            if (fns.length == 0) {
+                return node(CONST, c == And.class ? 1 : 0, 0);
+            }
+            if (fns.length == 1) {
+                return node(TRUTH, truth(fns[0]), -1);
+            }
+            int result = truth(fns[0]);
+            for (int i = 1; i < fns.length && result >= 0; i++) {
+                result = node(c == And.class ? AND : OR, result, truth(fns[i]));
+            }
+            return result;
+        }
+        if (c == Not.class && fns.length > 0) {
+            return node(NOT, truth(fns[0]), -1);
+        }
+        if ((c == Equals.class || c == Greater.class || c == Smaller.class) && fns.length == 2) {
+            int operation = c == Equals.class ? EQUALS : (c == Greater.class ? GREATER : SMALLER);
+            return node(operation, value(fns[0]), value(fns[1]));
+        }
+        if (c == Projection.class) {
+            int axis = ((Projection) function).getAxis();
+            if (axis < 1 || fns.length == 0 || !(fns[0] instanceof CurrentElement)) {
+                return -1;
+            }
+            return node(AXIS, (axis - 1) % sets.length, 0);
+        }
+        if (c == Add.class) {
+            return sum(fns, new boolean[fns.length]);
+        }
+        if (c == Sub.class && fns.length > 0) {
+            boolean[] negative = new boolean[fns.length];
+            Arrays.fill(negative, true);
+            negative[0] = fns.length == 1;
+            return sum(fns, negative);
+        }
+        if ((c == Div.class || c == Mod.class) && fns.length == 2) {
+            return node(c == Div.class ? DIV : MOD, value(fns[0]), value(fns[1]));
+        }
+        return -1;
+    }
+
+    /**
+     * Аргумент And, Or или Not: истинен, если его значение - не pfalse, т.е. не 0.
+     */
+    private int truth(AbstractFunction function) {
+        if (function instanceof Element && function.getClass() != IntElement.class) {
+            return node(CONST, Element.pfalse.equals(function) ? 0 : 1, 0);
+        }
+        return value(function);
+    }
+
+    /**
+     * Сумма слагаемых со знаками в порядке возрастания старших компонент: ((a + b) - c) + ...
+     * Каждая частичная сумма - отдельный узел, и при смене последних компонент пересчитываются только последние из них.
+     */
+    private int sum(AbstractFunction[] fns, boolean[] negative) {
+        if (fns.length == 0) {
+            return node(CONST, 0, 0);
+        }
+        int[] terms = new int[fns.length];
+        for (int i = 0; i < fns.length; i++) {
+            terms[i] = value(fns[i]);
+            if (terms[i] < 0) {
+                return -1;
+            }
+        }
+        // устойчивая сортировка вставками по старшей компоненте, слагаемых немного
+        for (int i = 1; i < terms.length; i++) {
+            int term = terms[i];
+            boolean sign = negative[i];
+            int j = i - 1;
+            while (j >= 0 && level[terms[j]] > level[term]) {
+                terms[j + 1] = terms[j];
+                negative[j + 1] = negative[j];
+                j--;
+            }
+            terms[j + 1] = term;
+            negative[j + 1] = sign;
+        }
+        int result = negative[0] ? node(NEGATE, terms[0], -1) : terms[0];
+        for (int i = 1; i < terms.length; i++) {
+            result = node(negative[i] ? SUB : ADD, result, terms[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Добавляет узел, -1 - если какой-то из аргументов (для операций, где они есть) нельзя перевести в узлы.
+     */
+    private int node(int operation, int a, int b) {
+        boolean unary = operation == NEGATE || operation == NOT || operation == TRUTH;
+        if (operation != CONST && operation != AXIS && (a < 0 || (!unary && b < 0))) {
+            return -1;
+        }
+        if (nodes == op.length) {
+            op = Arrays.copyOf(op, nodes * 2);
+            first = Arrays.copyOf(first, nodes * 2);
+            second = Arrays.copyOf(second, nodes * 2);
+            level = Arrays.copyOf(level, nodes * 2);
+        }
+        op[nodes] = operation;
+        first[nodes] = a;
+        second[nodes] = b;
+        if (operation == CONST) {
+            level[nodes] = -1;
+        } else if (operation == AXIS) {
+            level[nodes] = a;
+        } else {
+            level[nodes] = unary ? level[a] : Math.max(level[a], level[b]);
+        }
+        return nodes++;
+    }
+}
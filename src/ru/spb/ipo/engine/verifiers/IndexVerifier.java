@@ -28,34 +28,51 @@ import ru.spb.ipo.engine.sets.Set;
 import ru.spb.ipo.engine.sets.SetIterator;
 import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.utils.FractionalNumber;
+import ru.spb.ipo.engine.utils.MyLogger;
 
-import java.math.BigInteger;
+import java.util.List;
 
 public class IndexVerifier extends Verifier {
 
     private Function af = null;
 
+    private Node functionNode;
+
+    // перебор с отсечениями по слагаемым условия
+    private PrunedSearch search;
+
     private Element element2index = null;
 
     private Set source;
 
     public IndexVerifier(Node node) throws SystemException, TaskDeserializationException {
         source = Set.generateSet(node.getChild("sourceSet").getChild("set"));
-        af = Function.generateFunction(node.getChild("verifier").getChild("function"));
+        functionNode = node.getChild("verifier").getChild("function");
+        af = generateCondition(functionNode);
+        search = PrunedSearch.create(source, Function.generateFunction(functionNode), af);
         element2index = (Element) AbstractFunction.generateAbstractFunction(node.getChild("verifier").getChild("indexingElement").getChild("constElement"));
     }
 
-    public boolean verify(FractionalNumber[] answers) {
+    public SystemAnswer computeAnswer() {
+        if (search == null && ParallelEnumerator.canRun(source)) {
+            try {
+                return computeParallel();
+            } catch (TaskDeserializationException e) {
+                MyLogger.getLogger().warning("Can't copy verifier function, verifying in one thread: " + e.getMessage());
+            } catch (SystemException e) {
+                MyLogger.getLogger().warning("Can't copy verifier function, verifying in one thread: " + e.getMessage());
+            }
+        }
         long size = source.getSize();
         long iteration = 0;
-        BigInteger count = BigInteger.ZERO;
+        long count = 0;
         boolean isFound = false;
-        SetIterator it = source.iterator();
+        SetIterator it = search != null ? search.iterator() : source.cursor();
         while (it.hasNext()) {
             Element e = it.next();
             //System.out.println(e);
             if (Element.ptrue.equals(af.compute(e))) {
-                count = count.add(BigInteger.ONE);
+                count++;
                 if (e.equals(element2index)) {
                     isFound = true;
                     break;
@@ -64,11 +81,57 @@ public class IndexVerifier extends Verifier {
             setCompleted((float) iteration++ / size);
         }
         setCompleted(1.0f);
-        if (isFound) {
-            if (new FractionalNumber(count).equals(answers[0])) {
-                return true;
+        return isFound ? SystemAnswer.single(FractionalNumber.valueOf(count)) : SystemAnswer.none();
+    }
+
+    /**
+     * Номер искомого элемента - сумма подходящих элементов во всех частях до той, где он найден,
+     * плюс его номер внутри своей части. Части после найденной не дочитываются.
+     */
+    private SystemAnswer computeParallel() throws TaskDeserializationException, SystemException {
+        final ParallelEnumerator enumerator = new ParallelEnumerator(source);
+        List<ParallelEnumerator.Worker> workers = enumerator.run(new ParallelEnumerator.WorkerFactory() {
+            public ParallelEnumerator.Worker createWorker() throws TaskDeserializationException, SystemException {
+                return new IndexWorker(generateCondition(functionNode), element2index, enumerator);
+            }
+        });
+        long count = 0;
+        for (ParallelEnumerator.Worker worker : workers) {
+            IndexWorker indexWorker = (IndexWorker) worker;
+            count += indexWorker.count;
+            if (indexWorker.found) {
+                return SystemAnswer.single(FractionalNumber.valueOf(count));
+            }
+        }
+        return SystemAnswer.none();
+    }
+
+    private static class IndexWorker extends ParallelEnumerator.Worker {
+
+        private Element element2index;
+
+        private ParallelEnumerator enumerator;
+
+        private long count;
+
+        private boolean found;
+
+        IndexWorker(Function af, Element element2index, ParallelEnumerator enumerator) {
+            super(af);
+            this.element2index = element2index;
+            this.enumerator = enumerator;
+        }
+
+        protected boolean process(long index, Element e) {
+            if (Element.ptrue.equals(af.compute(e))) {
+                count++;
+                if (e.equals(element2index)) {
+                    found = true;
+                    enumerator.stopAfter(index);
+                    return false;
+                }
             }
+            return true;
         }
-        return false;
     }
 }
@@ -27,16 +27,21 @@ import ru.spb.ipo.engine.functions.ToDigit;
 import ru.spb.ipo.engine.sets.SetIterator;
 import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.utils.FractionalNumber;
+import ru.spb.ipo.engine.utils.MyLogger;
 import ru.spb.ipo.engine.utils.Parser;
 
-import java.text.SimpleDateFormat;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ListVerifier extends Verifier {
 
     private Function af = null;
 
+    private Node functionNode;
+
+    // перебор с отсечениями по слагаемым условия
+    private PrunedSearch search;
+
     private ru.spb.ipo.engine.sets.Set source;
 
     private FractionalNumber normilizer;
@@ -44,47 +49,69 @@ public class ListVerifier extends Verifier {
     public ListVerifier(Node node) throws SystemException, TaskDeserializationException {
         source = ru.spb.ipo.engine.sets.Set.generateSet(node.getChild("sourceSet").getChild("set"));
         Node verifier = node.getChild("verifier");
-        af = Function.generateFunction(verifier.getChild("function"));
+        functionNode = verifier.getChild("function");
+        af = generateCondition(functionNode);
+        search = PrunedSearch.create(source, Function.generateFunction(functionNode), af);
         String norm = verifier.getAttrIfExists("normalize", null);
         if (norm != null) {
             normilizer = new Parser().parse(norm);
         }
     }
 
-    public boolean verify(FractionalNumber[] answers) {
-        SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss SSS");
-//        System.out.println(sdf.format(new Date()));
-        //System.out.println("Starting solver ...");
-        Set userAnswers = new HashSet();
-        for (int i = 0; i < answers.length; i++) {
-            userAnswers.add(answers[i]);
+    /**
+     * Все ответы системы в порядке перебора, с ответом пользователя их сверяет SystemAnswer.accepts.
+     */
+    public SystemAnswer computeAnswer() {
+        if (search == null && ParallelEnumerator.canRun(source)) {
+            try {
+                return computeParallel();
+            } catch (TaskDeserializationException e) {
+                MyLogger.getLogger().warning("Can't copy verifier function, verifying in one thread: " + e.getMessage());
+            } catch (SystemException e) {
+                MyLogger.getLogger().warning("Can't copy verifier function, verifying in one thread: " + e.getMessage());
+            }
         }
+        List<FractionalNumber> systemAnswers = new ArrayList<FractionalNumber>();
         long size = source.getSize();
         long iteration = 0;
-        SetIterator it = source.iterator();
+        SetIterator it = search != null ? search.iterator() : source.cursor();
         while (it.hasNext()) {
             Element e = it.next();
-            //System.out.println(e);
-
             if (Element.ptrue.equals(af.compute(e))) {
-                //TODO
-                FractionalNumber answ = new FractionalNumber(ToDigit.computeAnswer(e));
-                if (userAnswers.contains(answ)) {
-                    userAnswers.remove(answ);
-                } else {
-                    return false;
-                }
+                systemAnswers.add(new FractionalNumber(ToDigit.computeAnswer(e)));
             }
             setCompleted((float) iteration++ / size);
         }
-
         setCompleted(1.0f);
-//        System.out.println(sdf.format(new Date()));
-//        //System.out.println("Task solved");
-//        System.out.println("user answer = " + answer);
-//        System.out.println("System answer = " + count);
-//        System.out.println("System answer = " + systemAnswer);
-        if (userAnswers.isEmpty()) return true;
-        return false;
+        return SystemAnswer.list(systemAnswers);
+    }
+
+    private SystemAnswer computeParallel() throws TaskDeserializationException, SystemException {
+        List<ParallelEnumerator.Worker> workers = new ParallelEnumerator(source).run(new ParallelEnumerator.WorkerFactory() {
+            public ParallelEnumerator.Worker createWorker() throws TaskDeserializationException, SystemException {
+                return new ListWorker(generateCondition(functionNode));
+            }
+        });
+        List<FractionalNumber> systemAnswers = new ArrayList<FractionalNumber>();
+        for (ParallelEnumerator.Worker worker : workers) {
+            systemAnswers.addAll(((ListWorker) worker).found);
+        }
+        return SystemAnswer.list(systemAnswers);
+    }
+
+    private static class ListWorker extends ParallelEnumerator.Worker {
+
+        private List<FractionalNumber> found = new ArrayList<FractionalNumber>();
+
+        ListWorker(Function af) {
+            super(af);
+        }
+
+        protected boolean process(long index, Element e) {
+            if (Element.ptrue.equals(af.compute(e))) {
+                found.add(new FractionalNumber(ToDigit.computeAnswer(e)));
+            }
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
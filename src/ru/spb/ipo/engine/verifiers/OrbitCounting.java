@@ -0,0 +1,97 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.elements.ContainerElement;
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.sets.DistinctSet;
+import ru.spb.ipo.engine.sets.Set;
+import ru.spb.ipo.engine.sets.SetIterator;
+import ru.spb.ipo.engine.sets.SubstitutionSet;
+import ru.spb.ipo.engine.utils.MyLogger;
+
+/**
+ * Подсчет орбит DistinctSet по лемме Бернсайда без построения списка различных кортежей.
+ * Сумма по перестановкам группы числа подходящих неподвижных кортежей равна сумме порядков
+ * стабилизаторов подходящих кортежей исходного множества, поэтому достаточно одного прохода по нему.
+ * Число орбит - эта сумма, деленная на порядок группы.
+ * <p/>
+ * Верно, только если исходное множество и условие не меняются при перестановках группы,
+ * поэтому режим включается явно атрибутом burnside="true" верификатора. Условие дополнительно
+ * проверяется на образах каждого подходящего кортежа под действием порождающих перестановок.
+ */
+public class OrbitCounting {
+
+    private Set source;
+
+    private SubstitutionSet group;
+
+    private Function condition;
+
+    private OrbitCounting() {
+    }
+
+    /**
+     * Возвращает подсчет орбит или null, если source - не DistinctSet.
+     */
+    public static OrbitCounting create(Set source, Function condition) {
+        if (!(source instanceof DistinctSet)) {
+            return null;
+        }
+        OrbitCounting counting = new OrbitCounting();
+        counting.source = ((DistinctSet) source).getSource();
+        counting.group = ((DistinctSet) source).getGroup();
+        counting.condition = condition;
+        return counting;
+    }
+
+    /**
+     * @return число орбит с выполненным условием или -1, если условие не выполнено на образе
+     *         подходящего кортежа или сумма не делится на порядок группы (условие или множество
+     *         не инвариантны) и считать нужно перебором
+     */
+    public long count() {
+        long size = source.getSize();
+        long iteration = 0;
+        long total = 0;
+        SetIterator it = source.cursor();
+        while (it.hasNext()) {
+            Element e = it.next();
+            if (Element.ptrue.equals(condition.compute(e))) {
+                ContainerElement[] images = group.generatorImages(e);
+                total += group.stabilizerSize(e);
+                for (int i = 0; i < images.length; i++) {
+                    if (!Element.ptrue.equals(condition.compute(images[i]))) {
+                        MyLogger.getLogger().warning("Condition is not invariant under DistinctSet group, counting orbits one by one");
+                        return -1;
+                    }
+                }
+            }
+            Verifier.setCompleted((float) iteration++ / size);
+        }
+        long order = group.getSize();
+        if (total % order != 0) {
+            MyLogger.getLogger().warning("Condition is not invariant under DistinctSet group, counting orbits one by one");
+            return -1;
+        }
+        return total / order;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.exception.SystemException;
+import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.sets.Set;
+import ru.spb.ipo.engine.sets.SetIterator;
+import ru.spb.ipo.engine.utils.SystemProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Параллельный перебор множества для верификаторов.
+ * Отрезок номеров [1, size] делится на части, каждая часть перебирается в ForkJoinPool
+ * своим обработчиком (Worker). Функции хранят промежуточные результаты в полях,
+ * поэтому у каждого обработчика своя копия дерева функций.
+ * Число потоков задается свойством SystemProperties.VERIFY_PARALLELISM.
+ */
+public class ParallelEnumerator {
+
+    /**
+     * Множества меньшего размера перебираются в одном потоке.
+     */
+    public static final long MIN_PARALLEL_SIZE = 1 << 16;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Через сколько элементов обновляется индикатор прогресса.
+     */
+    private static final int PROGRESS_STEP = 1 << 12;
+
+    // по пулу на каждое значение verifyParallelism: пул, который может использовать идущая проверка,
+    // не останавливается, а простаивающие потоки ForkJoinPool завершаются сами
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+    /**
+     * Обработчик одной части множества.
+     */
+    public static abstract class Worker {
+
+        protected Function af;
+
+        public Worker(Function af) {
+            this.af = af;
+        }
+
+        /**
+         * Обрабатывает элемент с номером index.
+         *
+         * @return false, если перебор этой части нужно прекратить
+         */
+        protected abstract boolean process(long index, Element e);
+    }
+
+    public interface WorkerFactory {
+
+        /**
+         * Создает обработчик с собственной копией функции верификатора.
+         * Вызывается в потоке, запустившем перебор.
+         */
+        Worker createWorker() throws TaskDeserializationException, SystemException;
+    }
+
+    private Set source;
+
+    private long size;
+
+    private AtomicLong processed = new AtomicLong();
+
+    private volatile long stopAfter = Long.MAX_VALUE;
+
+    // управление проверкой из потока, запустившего перебор
+    private VerifyControl control;
+
+    public ParallelEnumerator(Set source) {
+        this.source = source;
+        this.size = source.getSize();
+        this.control = VerifyControl.current();
+    }
+
+    public static int getParallelism() {
+        try {
+            return Math.max(1, SystemProperties.getInt(SystemProperties.VERIFY_PARALLELISM));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Стоит ли перебирать множество параллельно.
+     */
+    public static boolean canRun(Set source) {
+        return getParallelism() > 1 && source.getSize() >= MIN_PARALLEL_SIZE && source.isRandomAccess();
+    }
+
+    private static synchronized ForkJoinPool getPool(int parallelism) {
+        ForkJoinPool pool = pools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            pools.put(parallelism, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Прекращает перебор всех частей, которые начинаются после элемента с номером index.
+     */
+    public synchronized void stopAfter(long index) {
+        if (index < stopAfter) {
+            stopAfter = index;
+        }
+    }
+
+    /**
+     * Перебирает множество и возвращает обработчики в порядке следования их частей.
+     */
+    public List<Worker> run(WorkerFactory factory) throws TaskDeserializationException, SystemException {
+        int parallelism = getParallelism();
+        long chunkSize = Math.max(PROGRESS_STEP, (size + parallelism * CHUNKS_PER_THREAD - 1) / (parallelism * CHUNKS_PER_THREAD));
+
+        final List<Chunk> chunks = new ArrayList<Chunk>();
+        List<Worker> workers = new ArrayList<Worker>();
+        for (long first = 1; first <= size; first += chunkSize) {
+            Worker worker = factory.createWorker();
+            workers.add(worker);
+            chunks.add(new Chunk(worker, first, Math.min(size, first + chunkSize - 1)));
+        }
+
+        getPool(parallelism).invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+        progress(1.0f);
+        return workers;
+    }
+
+    /**
+     * Рабочие потоки пула не видят VerifyControl проверки, поэтому он передается явно.
+     * Исключение об отмене из части пробрасывается ForkJoinPool в поток, запустивший перебор.
+     */
+    private void progress(float completed) {
+        if (control != null) {
+            control.checkpoint();
+            control.progress(completed);
+        }
+    }
+
+    private class Chunk extends RecursiveAction {
+
+        private Worker worker;
+
+        private long first;
+
+        private long last;
+
+        Chunk(Worker worker, long first, long last) {
+            this.worker = worker;
+            this.first = first;
+            this.last = last;
+        }
+
+        protected void compute() {
+            SetIterator it = source.cursor(first, last);
+            long index = first;
+            int step = 0;
+            while (it.hasNext() && first <= stopAfter) {
+                if (!worker.process(index, it.next())) {
+                    break;
+                }
+                index++;
+                if (++step == PROGRESS_STEP) {
+                    progress((float) processed.addAndGet(step) / size);
+                    step = 0;
+                }
+            }
+            processed.addAndGet(step);
+        }
+    }
+}
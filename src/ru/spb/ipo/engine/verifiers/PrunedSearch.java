@@ -0,0 +1,231 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.elements.ContainerElement;
+import ru.spb.ipo.engine.elements.Element;
+import ru.spb.ipo.engine.elements.IntTupleElement;
+import ru.spb.ipo.engine.functions.AbstractFunction;
+import ru.spb.ipo.engine.functions.And;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.functions.ProjectionAxes;
+import ru.spb.ipo.engine.sets.DecartSet;
+import ru.spb.ipo.engine.sets.Set;
+import ru.spb.ipo.engine.sets.SetIterator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Перебор декартова произведения с отсечениями: кортеж строится по компонентам (перебор с возвратом),
+ * и каждое слагаемое условия And проверяется, как только заданы все компоненты, которые оно читает
+ * (см. ProjectionAxes). Если слагаемое ложно, все продолжения текущего префикса пропускаются.
+ * <p/>
+ * Порядок найденных кортежей совпадает с порядком DecartSet.iterator(). Для готового кортежа условие
+ * вычисляется целиком, поэтому результат тот же, что и при полном переборе.
+ */
+public class PrunedSearch {
+
+    private Set[] sets;
+
+    private Function condition;
+
+    // conditions[d] - слагаемые, которые можно проверить, когда заданы компоненты 1..d+1
+    private List<Function>[] conditions;
+
+    // ложное слагаемое, не зависящее от кортежа
+    private boolean empty;
+
+    private boolean intTuple;
+
+    private PrunedSearch() {
+    }
+
+    /**
+     * Возвращает перебор с отсечениями или null, если source - не декартово произведение
+     * либо ни одно слагаемое условия нельзя проверить до построения всего кортежа.
+     *
+     * @param tree      - условие, по которому определяются компоненты слагаемых
+     * @param condition - условие, которое проверяется для готовых кортежей
+     */
+    public static PrunedSearch create(Set source, Function tree, Function condition) {
+        if (!(source instanceof DecartSet) || tree.getClass() != And.class) {
+            return null;
+        }
+        PrunedSearch search = new PrunedSearch();
+        search.sets = ((DecartSet) source).getSets();
+        search.condition = condition;
+        int length = search.sets.length;
+        search.conditions = new List[length];
+        for (int i = 0; i < length; i++) {
+            search.conditions[i] = new ArrayList<Function>();
+        }
+        List<AbstractFunction> conjuncts = new ArrayList<AbstractFunction>();
+        flatten(tree, conjuncts);
+        boolean useful = false;
+        for (AbstractFunction conjunct : conjuncts) {
+            BitSet axes = ProjectionAxes.of(conjunct, length);
+            if (axes == null) {
+                continue;
+            }
+            if (axes.isEmpty()) {
+                try {
+                    search.empty |= !isTrue(conjunct, null);
+                } catch (RuntimeException e) {
+                    // проверится вместе со всем условием
+                }
+                continue;
+            }
+            int depth = axes.length() - 2;
+            if (depth < length - 1 && conjunct instanceof Function) {
+                search.conditions[depth].add(Verifier.compileIfEnabled((Function) conjunct));
+                useful = true;
+            }
+        }
+        if (!useful && !search.empty) {
+            return null;
+        }
+        search.intTuple = true;
+        for (int i = 0; i < length; i++) {
+            search.intTuple &= search.sets[i].isIntValued();
+        }
+        return search;
+    }
+
+    private static void flatten(AbstractFunction function, List<AbstractFunction> conjuncts) {
+        if (function.getClass() == And.class) {
+            AbstractFunction[] fns = ((Function) function).getArguments();
+            for (int i = 0; i < fns.length; i++) {
+                flatten(fns[i], conjuncts);
+            }
+        } else {
+            conjuncts.add(function);
+        }
+    }
+
+    private static boolean isTrue(AbstractFunction function, Element tuple) {
+        return !Element.pfalse.equals(function.compute(tuple));
+    }
+
+    /**
+     * Количество кортежей, удовлетворяющих условию.
+     */
+    public long count() {
+        long count = 0;
+        SetIterator it = iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Итератор по кортежам, удовлетворяющим условию. Возвращает один и тот же изменяемый кортеж, как Set.cursor().
+     */
+    public SetIterator iterator() {
+        return new SetIterator() {
+
+            private SetIterator[] iterators = new SetIterator[sets.length];
+
+            private Element[] slots = new Element[sets.length];
+
+            private IntTupleElement ints = intTuple ? new IntTupleElement(sets.length) : null;
+
+            private Element tuple = intTuple ? ints : new ContainerElement(slots);
+
+            private int depth;
+
+            private boolean ready;
+
+            // сколько значений первой компоненты уже перебрано, для индикатора прогресса
+            private long started;
+
+            {
+                reset();
+            }
+
+            public boolean hasNext() {
+                if (!ready) {
+                    ready = advance();
+                }
+                return ready;
+            }
+
+            public Element next() {
+                if (!hasNext()) return null;
+                ready = false;
+                return tuple;
+            }
+
+            public void reset() {
+                for (int i = 0; i < sets.length; i++) {
+                    iterators[i] = sets[i].cursor();
+                }
+                depth = empty ? -1 : 0;
+                ready = false;
+                started = 0;
+            }
+
+            private boolean advance() {
+                int last = sets.length - 1;
+                while (depth >= 0) {
+                    SetIterator it = iterators[depth];
+                    if (!it.hasNext()) {
+                        it.reset();
+                        depth--;
+                        continue;
+                    }
+                    Element e = it.next();
+                    if (intTuple) {
+                        ints.setIntAt(depth + 1, e.getInt());
+                    } else {
+                        slots[depth] = e;
+                    }
+                    if (depth == 0) {
+                        Verifier.setCompleted((float) started++ / sets[0].getSize());
+                    }
+                    if (depth < last) {
+                        if (check(depth)) {
+                            depth++;
+                        }
+                    } else if (Element.ptrue.equals(condition.compute(tuple))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            private boolean check(int depth) {
+                List<Function> list = conditions[depth];
+                for (int i = 0; i < list.size(); i++) {
+                    try {
+                        if (!isTrue(list.get(i), tuple)) {
+                            return false;
+                        }
+                    } catch (RuntimeException e) {
+                        // ошибка проявится при проверке готового кортежа, если до нее дойдет
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
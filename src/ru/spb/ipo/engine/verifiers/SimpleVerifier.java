@@ -27,53 +27,125 @@ import ru.spb.ipo.engine.sets.Set;
 import ru.spb.ipo.engine.sets.SetIterator;
 import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.utils.FractionalNumber;
+import ru.spb.ipo.engine.utils.MyLogger;
 import ru.spb.ipo.engine.utils.Parser;
 
-import java.math.BigInteger;
-import java.text.SimpleDateFormat;
+import java.util.List;
 
 public class SimpleVerifier extends Verifier {
 
     private Function af = null;
 
+    private Node functionNode;
+
     private Set source;
 
     private FractionalNumber normilizer;
 
+    // подсчет без перебора, если условие его допускает
+    private CountingPlan plan;
+
+    // перебор с отсечениями по слагаемым условия
+    private PrunedSearch search;
+
+    // подсчет орбит DistinctSet по лемме Бернсайда, включается атрибутом burnside верификатора
+    private OrbitCounting orbits;
+
+    // перебор декартова произведения с пересчетом только изменившихся частей условия
+    private IncrementalEvaluation incremental;
+
     public SimpleVerifier(Node node) throws SystemException, TaskDeserializationException {
         source = Set.generateSet(node.getChild("sourceSet").getChild("set"));
         Node verifier = node.getChild(VERIFIER);
-        af = Function.generateFunction(verifier.getChild("function"));
+        functionNode = verifier.getChild("function");
+        af = generateCondition(functionNode);
+        Function tree = Function.generateFunction(functionNode);
+        plan = CountingPlan.create(source, tree);
+        search = PrunedSearch.create(source, tree, af);
+        incremental = IncrementalEvaluation.create(source, tree);
+        if (Boolean.valueOf(verifier.getAttrIfExists("burnside", "false")).booleanValue()) {
+            orbits = OrbitCounting.create(source, af);
+        }
         String norm = verifier.getAttrIfExists("normalize", null);
         if (norm != null) {
             normilizer = new Parser().parse(norm);
         }
     }
 
-    public boolean verify(FractionalNumber[] answers) {
-        SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss SSS");
+    public SystemAnswer computeAnswer() {
+        long count = plan != null ? plan.count() : -1;
+        if (count < 0 && orbits != null) {
+            count = orbits.count();
+        }
+        if (count < 0 && search != null) {
+            count = search.count();
+        }
+        boolean parallel = ParallelEnumerator.canRun(source);
+        // на нескольких потоках полный перебор быстрее однопоточного пересчета
+        if (count < 0 && incremental != null && !parallel) {
+            count = incremental.count();
+        }
+        if (count < 0) {
+            count = parallel ? countParallel() : count();
+        }
+        FractionalNumber systemAnswer = FractionalNumber.valueOf(count);
+        if (normilizer != null) {
+            systemAnswer = systemAnswer.divide(normilizer);
+        }
+        setCompleted(1.0f);
+        return SystemAnswer.single(systemAnswer);
+    }
+
+    private long count() {
         long size = source.getSize();
         long iteration = 0;
-        BigInteger count = BigInteger.ZERO;
-        SetIterator it = source.iterator();
+        long count = 0;
+        SetIterator it = source.cursor();
         while (it.hasNext()) {
             Element e = it.next();
-            //System.out.println(e);
             if (Element.ptrue.equals(af.compute(e))) {
-                count = count.add(BigInteger.ONE);
+                count++;
             }
             setCompleted((float) iteration++ / size);
         }
-        FractionalNumber systemAnswer = new FractionalNumber(count);
-        if (normilizer != null) {
-            systemAnswer = systemAnswer.divide(normilizer);
+        return count;
+    }
+
+    private long countParallel() {
+        List<ParallelEnumerator.Worker> workers;
+        try {
+            workers = new ParallelEnumerator(source).run(new ParallelEnumerator.WorkerFactory() {
+                public ParallelEnumerator.Worker createWorker() throws TaskDeserializationException, SystemException {
+                    return new CountWorker(generateCondition(functionNode));
+                }
+            });
+        } catch (TaskDeserializationException e) {
+            MyLogger.getLogger().warning("Can't copy verifier function, counting in one thread: " + e.getMessage());
+            return count();
+        } catch (SystemException e) {
+            MyLogger.getLogger().warning("Can't copy verifier function, counting in one thread: " + e.getMessage());
+            return count();
         }
-        setCompleted(1.0f);
+        long count = 0;
+        for (ParallelEnumerator.Worker worker : workers) {
+            count += ((CountWorker) worker).count;
+        }
+        return count;
+    }
 
-        if (systemAnswer.equals(answers[0])) {
-            return true;
+    private static class CountWorker extends ParallelEnumerator.Worker {
+
+        private long count;
+
+        CountWorker(Function af) {
+            super(af);
         }
 
-        return false;
+        protected boolean process(long index, Element e) {
+            if (Element.ptrue.equals(af.compute(e))) {
+                count++;
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.verifiers;
+
+import ru.spb.ipo.engine.utils.FractionalNumber;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ответ системы, вычисленный верификатором независимо от ответа пользователя:
+ * одно число, список чисел (ListVerifier) или отсутствие ответа (IndexVerifier не нашел элемент).
+ */
+public class SystemAnswer implements java.io.Serializable {
+
+    // ответы хранятся в answerCacheFile, значение совпадает с вычисленным для уже сохраненных кешей
+    private static final long serialVersionUID = 7276576988870172113L;
+
+    private final FractionalNumber[] values;
+
+    private final boolean list;
+
+    private SystemAnswer(FractionalNumber[] values, boolean list) {
+        this.values = values;
+        this.list = list;
+    }
+
+    public static SystemAnswer single(FractionalNumber value) {
+        return new SystemAnswer(new FractionalNumber[]{value}, false);
+    }
+
+    /**
+     * Ответа нет, никакой ответ пользователя не принимается.
+     */
+    public static SystemAnswer none() {
+        return new SystemAnswer(new FractionalNumber[0], false);
+    }
+
+    /**
+     * Список ответов, пользователь должен перечислить их все. Повторяющийся ответ системы не принимается никогда.
+     */
+    public static SystemAnswer list(List<FractionalNumber> values) {
+        return new SystemAnswer(values.toArray(new FractionalNumber[values.size()]), true);
+    }
+
+    public boolean accepts(FractionalNumber[] answers) {
+        if (!list) {
+            return values.length == 1 && answers.length > 0 && values[0].equals(answers[0]);
+        }
+        Set<FractionalNumber> userAnswers = new HashSet<FractionalNumber>(Arrays.asList(answers));
+        for (int i = 0; i < values.length; i++) {
+            if (!userAnswers.remove(values[i])) {
+                return false;
+            }
+        }
+        return userAnswers.isEmpty();
+    }
+
+    public String toString() {
+        return list ? Arrays.asList(values).toString() : (values.length == 0 ? "none" : values[0].toString());
+    }
+}
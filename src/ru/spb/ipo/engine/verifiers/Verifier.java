@@ -19,12 +19,17 @@
 
 package ru.spb.ipo.engine.verifiers;
 
-import ru.spb.ipo.client.ui.ClientUI;
 import ru.spb.ipo.engine.exception.SystemException;
 import ru.spb.ipo.engine.exception.TaskDeserializationException;
+import ru.spb.ipo.engine.functions.Function;
+import ru.spb.ipo.engine.functions.FunctionCompiler;
+import ru.spb.ipo.engine.sets.DistinctSet;
+import ru.spb.ipo.engine.sets.Set;
 import ru.spb.ipo.engine.task.Node;
 import ru.spb.ipo.engine.task.TaskConstant;
 import ru.spb.ipo.engine.utils.FractionalNumber;
+import ru.spb.ipo.engine.utils.SystemProperties;
+import ru.spb.ipo.engine.utils.Utils;
 
 import java.lang.reflect.InvocationTargetException;
 
@@ -34,13 +39,23 @@ import java.lang.reflect.InvocationTargetException;
  */
 public abstract class Verifier implements TaskConstant {
 
-    public abstract boolean verify(FractionalNumber[] answer);
+    /**
+     * Вычисляет ответ системы для задачи. Результат не зависит от ответа пользователя и может быть закэширован.
+     */
+    public abstract SystemAnswer computeAnswer();
+
+    /**
+     * Проверяет ответ пользователя.
+     */
+    public boolean verify(FractionalNumber[] answer) {
+        return computeAnswer().accepts(answer);
+    }
 
     public static Verifier generateVerifier(Node node) throws TaskDeserializationException, SystemException {
         Node verifierNode = node.getChild(TaskConstant.VERIFIER);
         String type = verifierNode.getAttr("type");
         try {
-            return (Verifier) Class.forName("ru.spb.ipo.engine.verifiers." + type).getConstructor(new Class[]{Node.class}).newInstance(new Object[]{node});
+            return (Verifier) Utils.forName("ru.spb.ipo.engine.verifiers." + type).getConstructor(new Class[]{Node.class}).newInstance(new Object[]{node});
         } catch (ClassNotFoundException e) {
             //throw new SystemException("Couldn't find class for verifier " + t.getNodeValue(), e);
             throw new TaskDeserializationException("Не могу найти класс верификатора " + type, e);
@@ -61,9 +76,56 @@ public abstract class Verifier implements TaskConstant {
         }
     }
 
+    /**
+     * Оценка стоимости проверки без перебора: размер исходного множества, умноженный на число узлов
+     * функции верификатора. Отсечения и подсчет без перебора не учитываются, это оценка сверху.
+     * Для DistinctSet берется размер исходного множества, чтобы не строить список различных кортежей.
+     */
+    public static long estimateCost(Node node) throws TaskDeserializationException, SystemException {
+        Node source = node.getChildIfExists("sourceSet");
+        long size = 1;
+        if (source != null) {
+            Set set = Set.generateSet(source.getChild("set"));
+            size = set instanceof DistinctSet ? ((DistinctSet) set).getSource().getSize() : set.getSize();
+        }
+        Node verifier = node.getChildIfExists(VERIFIER);
+        Node function = verifier != null ? verifier.getChildIfExists(FUNCTION) : null;
+        long nodes = function != null ? countNodes(function) : 1;
+        return size > Long.MAX_VALUE / nodes ? Long.MAX_VALUE : size * nodes;
+    }
+
+    private static long countNodes(Node node) {
+        long count = 1;
+        for (Node child : node.getChilds(null)) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    /**
+     * Создает функцию-условие верификатора. Если включено свойство compileFunctions, условие компилируется.
+     */
+    protected static Function generateCondition(Node node) throws TaskDeserializationException, SystemException {
+        return compileIfEnabled(Function.generateFunction(node));
+    }
+
+    /**
+     * Компилирует функцию, если включено свойство compileFunctions (по умолчанию выключено).
+     */
+    static Function compileIfEnabled(Function function) {
+        if (SystemProperties.getBooleanFromString(SystemProperties.COMPILE_FUNCTIONS)) {
+            return FunctionCompiler.compile(function);
+        }
+        return function;
+    }
+
+    /**
+     * Сообщает о ходе проверки VerifyControl текущего потока; отмененная проверка прерывается здесь.
+     */
     public static void setCompleted(float i) {
-        if (ClientUI.client != null) {
-            ClientUI.client.setProcessed(i);
+        VerifyControl control = VerifyControl.current();
+        if (control != null) {
+            control.progress(i);
         }
     }
 }
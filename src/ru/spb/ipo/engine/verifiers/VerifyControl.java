@@ -0,0 +1,138 @@
+/*
+ * This file is part of Wisetasks
+ *
+ * Copyright (C) 2006-2008, 2012  Michael Bogdanov
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ru.spb.ipo.engine.verifiers;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Управление одной проверкой: отмена, срок и ход выполнения.
+ * Привязывается к потоку проверки через attach; верификаторы и ParallelEnumerator
+ * опрашивают его в циклах перебора и прерывают перебор исключением CancellationException.
+ */
+public class VerifyControl {
+
+    private static final ThreadLocal<VerifyControl> current = new ThreadLocal<VerifyControl>();
+
+    /**
+     * Срок и отмена родительской проверки проверяются раз в столько вызовов progress.
+     */
+    private static final int CHECK_MASK = (1 << 10) - 1;
+
+    private final ProgressListener listener;
+
+    // отмена и срок родительской проверки распространяются на эту
+    private final VerifyControl parent;
+
+    // System.nanoTime(), 0 - без срока
+    private final long deadline;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean expired;
+
+    // progress вызывают одновременно несколько потоков ParallelEnumerator
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private volatile int lastPercent = -1;
+
+    /**
+     * @param timeoutMillis время на проверку, 0 - без ограничения
+     */
+    public VerifyControl(ProgressListener listener, long timeoutMillis) {
+        this.listener = listener;
+        this.parent = null;
+        this.deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000L : 0;
+    }
+
+    /**
+     * Часть проверки, которую можно отменить отдельно; ход части не передается слушателю.
+     *
+     * @param parent проверка целиком, может быть null
+     */
+    public VerifyControl(VerifyControl parent) {
+        this.listener = null;
+        this.parent = parent;
+        this.deadline = 0;
+    }
+
+    public static VerifyControl current() {
+        return current.get();
+    }
+
+    public static void attach(VerifyControl control) {
+        current.set(control);
+    }
+
+    public static void detach() {
+        current.remove();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || expired || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Проверка прервана по сроку, а не отменена.
+     */
+    public boolean isExpired() {
+        return expired || (parent != null && parent.isExpired());
+    }
+
+    public void checkpoint() {
+        if (parent != null) {
+            parent.checkpoint();
+        }
+        if (!expired && deadline != 0 && System.nanoTime() - deadline > 0) {
+            expired = true;
+        }
+        if (expired) {
+            throw new CancellationException("Verification deadline exceeded");
+        }
+        if (cancelled) {
+            throw new CancellationException("Verification cancelled");
+        }
+    }
+
+    /**
+     * Сообщает о ходе проверки. Слушатель вызывается только при смене целого процента, по одному потоку за раз.
+     * Меньший процент, чем уже сообщенный, - опоздавший отчет другого потока и пропускается;
+     * исключение - 0, с которого начинается проверка следующего набора параметров.
+     */
+    public void progress(float completed) {
+        if (cancelled || (calls.incrementAndGet() & CHECK_MASK) == 0 || completed >= 1.0f) {
+            checkpoint();
+        }
+        int percent = (int) (completed * 100);
+        if (listener != null && percent != lastPercent) {
+            synchronized (this) {
+                int last = lastPercent;
+                if (percent > last || (percent == 0 && last != 0)) {
+                    lastPercent = percent;
+                    listener.progress(completed);
+                }
+            }
+        }
+    }
+}